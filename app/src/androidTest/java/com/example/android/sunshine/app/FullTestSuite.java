@@ -16,14 +16,36 @@
 package com.example.android.sunshine.app;
 
 import android.test.suitebuilder.TestSuiteBuilder;
+import android.test.suitebuilder.annotation.LargeTest;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
+import java.util.Enumeration;
+
+/*
+    Every correctness test of the app.  The benchmarks are annotated @LargeTest and left out,
+    as they only log their numbers and take minutes; run them on request with
+        adb shell am instrument -w -e size large \
+            com.example.android.sunshine.app.test/android.test.InstrumentationTestRunner
+ */
 public class FullTestSuite extends TestSuite {
     public static Test suite() {
-        return new TestSuiteBuilder(FullTestSuite.class)
-                .includeAllPackagesUnderHere().build();
+        return withoutLargeTests(new TestSuiteBuilder(FullTestSuite.class)
+                .includeAllPackagesUnderHere().build());
+    }
+
+    private static TestSuite withoutLargeTests(TestSuite suite) {
+        TestSuite filtered = new TestSuite(suite.getName());
+        for (Enumeration<Test> tests = suite.tests(); tests.hasMoreElements(); ) {
+            Test test = tests.nextElement();
+            if (test instanceof TestSuite) {
+                filtered.addTest(withoutLargeTests((TestSuite) test));
+            } else if (!test.getClass().isAnnotationPresent(LargeTest.class)) {
+                filtered.addTest(test);
+            }
+        }
+        return filtered;
     }
 
     public FullTestSuite() {
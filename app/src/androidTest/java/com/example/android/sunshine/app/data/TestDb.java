@@ -49,36 +49,16 @@ public class TestDb extends AndroidTestCase {
         give you the code for the weather table.  This test does not look at the
      */
     public void testCreateDb() throws Throwable {
-        // build a HashSet of all of the table names we wish to look for
-        // Note that there will be another table in the DB that stores the
-        // Android metadata (db version information)
-        final HashSet<String> tableNameHashSet = new HashSet<String>();
-        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
-        tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
-
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
                 this.mContext).getWritableDatabase();
         assertEquals(true, db.isOpen());
 
         // have we created the tables we want?
-        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
-
-        assertTrue("Error: This means that the database has not been created correctly",
-                c.moveToFirst());
-
-        // verify that the tables have been created
-        do {
-            tableNameHashSet.remove(c.getString(0));
-        } while( c.moveToNext() );
-
-        // if this fails, it means that your database doesn't contain both the location entry
-        // and weather entry tables
-        assertTrue("Error: Your database was created without both the location entry and weather entry tables",
-                tableNameHashSet.isEmpty());
+        assertTables("Error: Your database was created without all of its tables", db);
 
         // now, do our tables contain the correct columns?
-        c = db.rawQuery("PRAGMA table_info(" + WeatherContract.LocationEntry.TABLE_NAME + ")",
+        Cursor c = db.rawQuery("PRAGMA table_info(" + WeatherContract.LocationEntry.TABLE_NAME + ")",
                 null);
 
         assertTrue("Error: This means that we were unable to query the database for table information.",
@@ -90,7 +70,9 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_NAME);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_SAVED);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -105,6 +87,45 @@ public class TestDb extends AndroidTestCase {
         db.close();
     }
 
+    /*
+        Upgrading from the previous version must leave every table in place, since onUpgrade()
+        drops and recreates them all.
+     */
+    public void testUpgradeDb() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        dbHelper.onUpgrade(db, WeatherDbHelper.DATABASE_VERSION - 1,
+                WeatherDbHelper.DATABASE_VERSION);
+        assertTables("Error: The upgrade didn't recreate every table", db);
+        db.close();
+    }
+
+    private static void assertTables(String error, SQLiteDatabase db) {
+        // build a HashSet of all of the table names we wish to look for
+        // Note that there will be another table in the DB that stores the
+        // Android metadata (db version information)
+        final HashSet<String> tableNameHashSet = new HashSet<String>();
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ValidatorEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncMetricsEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyWeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncStateEntry.TABLE_NAME);
+
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='table'", null);
+
+        assertTrue("Error: This means that the database has not been created correctly",
+                c.moveToFirst());
+
+        // verify that the tables have been created
+        do {
+            tableNameHashSet.remove(c.getString(0));
+        } while( c.moveToNext() );
+        c.close();
+
+        assertTrue(error + ": missing " + tableNameHashSet, tableNameHashSet.isEmpty());
+    }
+
     /*
         Students:  Here is where you will build code to test that we can insert and query the
         location database.  We've done a lot of work for you.  You'll want to look in TestUtilities
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Locale;
+
+/*
+    Stores 14, 1,000 and 100,000 days for one location, once through bulkInsert() with a
+    ContentValues per day and once through WeatherProvider.storeForecast() with ForecastRows,
+    the path a sync takes, and logs the rows per second of each:
+
+        adb logcat -s TestForecastIngestBenchmark
+
+    Both start from an empty table for the location and include building the rows, since the
+    ContentValues are part of what the old path costs.
+ */
+@LargeTest
+public class TestForecastIngestBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastIngestBenchmark.class.getSimpleName();
+
+    private static final String LOCATION_SETTING = "ingest-benchmark";
+
+    private long mLocationId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteBenchmarkRecords();
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "Benchmark City");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 0);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, 0);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                locationValues);
+        mLocationId = ContentUris.parseId(locationUri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteBenchmarkRecords();
+        super.tearDown();
+    }
+
+    public void testIngest14Days() {
+        benchmark(14);
+    }
+
+    public void testIngest1000Days() {
+        benchmark(1000);
+    }
+
+    public void testIngest100000Days() {
+        benchmark(100000);
+    }
+
+    private void benchmark(int days) {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+
+        long bulkInsertNanos = bulkInsert(days, today);
+        assertStoredDays(days);
+        deleteWeather();
+
+        long storeNanos = storeForecast(days, today);
+        assertStoredDays(days);
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d days: bulkInsert %.1f ms (%.0f rows/s), storeForecast %.1f ms (%.0f rows/s)",
+                days, bulkInsertNanos / 1e6, days / (bulkInsertNanos / 1e9),
+                storeNanos / 1e6, days / (storeNanos / 1e9)));
+    }
+
+    private long bulkInsert(int days, long today) {
+        long start = System.nanoTime();
+        ContentValues[] values = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            values[i] = TestUtilities.createWeatherValues(mLocationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, today + i * DateUtils.DAY_IN_MILLIS);
+        }
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                values);
+        long nanos = System.nanoTime() - start;
+        assertEquals(days, inserted);
+        return nanos;
+    }
+
+    private long storeForecast(int days, long today) {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+
+            long start = System.nanoTime();
+            ForecastRows rows = new ForecastRows(days);
+            for (int i = 0; i < days; i++) {
+                // The same day as TestUtilities.createWeatherValues()
+                rows.add(today + i * DateUtils.DAY_IN_MILLIS, 321, "Asteroids", 65, 75, 1.2,
+                        1.3, 5.5, 1.1);
+            }
+            Bundle result = provider.storeForecast(mLocationId,
+                    today - DateUtils.DAY_IN_MILLIS, rows);
+            long nanos = System.nanoTime() - start;
+            assertEquals(days, result.getInt(WeatherEntry.EXTRA_INSERTED));
+            return nanos;
+        } finally {
+            client.release();
+        }
+    }
+
+    private void assertStoredDays(int days) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(LOCATION_SETTING),
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertEquals("Error: Not every day was stored", days, cursor.getCount());
+        assertTrue(cursor.moveToLast());
+        assertEquals(75, cursor.getDouble(0), 0);
+        cursor.close();
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(mLocationId)});
+    }
+
+    private void deleteBenchmarkRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + LocationEntry._ID + " FROM "
+                        + LocationEntry.TABLE_NAME + " WHERE "
+                        + LocationEntry.COLUMN_LOCATION_SETTING + " = ?)",
+                new String[]{LOCATION_SETTING});
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{LOCATION_SETTING});
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/*
+    Checks that ForecastSnapshot reads back what the provider returns, and that it steps aside
+    whenever it can't answer for the provider.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "snapshot-test/99705";
+    private static final int DAYS = 3;
+
+    private static final String[] PROJECTION = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestRecords();
+        super.tearDown();
+    }
+
+    private void deleteTestRecords() {
+        ForecastSnapshot.getFile(mContext).delete();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {TEST_LOCATION}, null);
+        try {
+            while (cursor.moveToNext()) {
+                mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[] {Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {TEST_LOCATION});
+    }
+
+    private void insertForecast() {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        long locationId = ContentUris.parseId(locationUri);
+
+        // Yesterday is stored too, and must be left out like the provider leaves it out
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] weatherValues = new ContentValues[DAYS + 1];
+        for (int i = 0; i < weatherValues.length; i++) {
+            weatherValues[i] = TestUtilities.createWeatherValues(locationId);
+            weatherValues[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    today + (i - 1) * DateUtils.DAY_IN_MILLIS);
+            weatherValues[i].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            weatherValues[i].put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Asteroids " + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                weatherValues);
+    }
+
+    /*
+        Every column of every upcoming day has to read back as the provider returns it.
+     */
+    public void testSnapshotMatchesProvider() {
+        assertNull("Error: There is no snapshot yet",
+                ForecastSnapshot.query(mContext, TEST_LOCATION, PROJECTION));
+
+        insertForecast();
+        ForecastSnapshot.update(mContext, TEST_LOCATION);
+        assertTrue(ForecastSnapshot.isCurrent(mContext, TEST_LOCATION));
+
+        Cursor snapshot = ForecastSnapshot.query(mContext, TEST_LOCATION, PROJECTION);
+        assertNotNull("Error: The snapshot wasn't written", snapshot);
+        Cursor expected = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(TEST_LOCATION,
+                        System.currentTimeMillis()),
+                PROJECTION, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(DAYS, expected.getCount());
+            assertEquals(expected.getCount(), snapshot.getCount());
+            while (expected.moveToNext()) {
+                assertTrue(snapshot.moveToNext());
+                for (int i = 0; i < PROJECTION.length; i++) {
+                    String error = "Error: " + PROJECTION[i] + " differs from the provider's";
+                    assertEquals(error, expected.getType(i), snapshot.getType(i));
+                    if (expected.getType(i) == Cursor.FIELD_TYPE_FLOAT) {
+                        assertEquals(error, expected.getDouble(i), snapshot.getDouble(i));
+                    } else {
+                        assertEquals(error, expected.getString(i), snapshot.getString(i));
+                    }
+                }
+            }
+            assertEquals(snapshot.getColumnIndex(WeatherContract.WeatherEntry._ID),
+                    expected.getColumnIndex(WeatherContract.WeatherEntry._ID));
+        } finally {
+            expected.close();
+            snapshot.close();
+        }
+    }
+
+    /*
+        Another location, an unknown column or an unknown layout must all send the reader
+        to the provider.
+     */
+    public void testSnapshotStepsAside() throws IOException {
+        insertForecast();
+        ForecastSnapshot.update(mContext, TEST_LOCATION);
+
+        assertNull("Error: The snapshot answered for another location",
+                ForecastSnapshot.query(mContext, "99999", PROJECTION));
+        assertNull("Error: The snapshot answered for a column it doesn't have",
+                ForecastSnapshot.query(mContext, TEST_LOCATION,
+                        new String[] {WeatherContract.LocationEntry.COLUMN_SAVED}));
+
+        RandomAccessFile file = new RandomAccessFile(ForecastSnapshot.getFile(mContext), "rw");
+        try {
+            // The version follows the magic number
+            file.seek(4);
+            file.writeInt(Integer.MAX_VALUE);
+        } finally {
+            file.close();
+        }
+        assertNull("Error: A snapshot of another version was read",
+                ForecastSnapshot.query(mContext, TEST_LOCATION, PROJECTION));
+    }
+}
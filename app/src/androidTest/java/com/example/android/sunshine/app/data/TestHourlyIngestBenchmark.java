@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+import java.util.Locale;
+
+/*
+    Stores the hourly forecasts of 10, 50 and 200 locations through the provider, one call
+    per location the way a sync does, and logs how long it took and how much of the database
+    the rows take up:
+
+        adb logcat -s TestHourlyIngestBenchmark
+
+    Every size is stored twice, once into an empty table and once more replacing every entry,
+    which is what each following sync does.
+ */
+@LargeTest
+public class TestHourlyIngestBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestHourlyIngestBenchmark.class.getSimpleName();
+
+    private static final String LOCATION_PREFIX = "benchmark-";
+    // What OWM sends for 5 days in 3 hour steps
+    private static final int ENTRIES_PER_LOCATION = 40;
+    private static final long STEP = 3 * DateUtils.HOUR_IN_MILLIS;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteBenchmarkRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteBenchmarkRecords();
+        super.tearDown();
+    }
+
+    public void testIngest10Locations() {
+        benchmark(10);
+    }
+
+    public void testIngest50Locations() {
+        benchmark(50);
+    }
+
+    public void testIngest200Locations() {
+        benchmark(200);
+    }
+
+    private void benchmark(int locations) {
+        long[] locationIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_PREFIX + i);
+            locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LAT, i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LONG, -i);
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    locationValues);
+            locationIds[i] = ContentUris.parseId(locationUri);
+        }
+
+        long usedBefore = getUsedDatabaseBytes();
+        long firstTime = System.currentTimeMillis() / STEP * STEP;
+        long insertNanos = ingest(locationIds, firstTime);
+        long usedAfter = getUsedDatabaseBytes();
+        long replaceNanos = ingest(locationIds, firstTime);
+
+        Cursor cursor = mContext.getContentResolver().query(HourlyWeatherEntry.CONTENT_URI,
+                new String[]{HourlyWeatherEntry._ID}, null, null, null);
+        assertEquals("Error: Not every hourly entry was stored",
+                locations * ENTRIES_PER_LOCATION, cursor.getCount());
+        cursor.close();
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d locations, %d entries: insert %.1f ms (%.2f ms per location), "
+                        + "replace %.1f ms (%.2f ms per location), %d KB of the database",
+                locations, locations * ENTRIES_PER_LOCATION,
+                insertNanos / 1e6, insertNanos / 1e6 / locations,
+                replaceNanos / 1e6, replaceNanos / 1e6 / locations,
+                (usedAfter - usedBefore) / 1024));
+    }
+
+    /*
+        Stores a full hourly forecast for every location and returns the total time it took.
+     */
+    private long ingest(long[] locationIds, long firstTime) {
+        long total = 0;
+        for (long locationId : locationIds) {
+            ContentValues[] hourlyValues = new ContentValues[ENTRIES_PER_LOCATION];
+            for (int i = 0; i < ENTRIES_PER_LOCATION; i++) {
+                hourlyValues[i] = TestUtilities.createHourlyWeatherValues(firstTime + i * STEP);
+            }
+            Bundle extras = new Bundle();
+            extras.putLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID, locationId);
+            extras.putLong(HourlyWeatherEntry.EXTRA_EXPIRED_TIME,
+                    System.currentTimeMillis() - HourlyWeatherEntry.RETENTION);
+            extras.putParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES, hourlyValues);
+
+            long start = System.nanoTime();
+            Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    HourlyWeatherEntry.METHOD_STORE_HOURLY_FORECAST, null, extras);
+            total += System.nanoTime() - start;
+            assertEquals(ENTRIES_PER_LOCATION,
+                    result.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED));
+        }
+        return total;
+    }
+
+    /*
+        Pages in use, leaving out the free pages that deleted rows leave behind.
+     */
+    private long getUsedDatabaseBytes() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        try {
+            long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+            return (pageCount - freePages) * pageSize;
+        } finally {
+            db.close();
+        }
+    }
+
+    private void deleteBenchmarkRecords() {
+        mContext.getContentResolver().delete(HourlyWeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " LIKE ?",
+                new String[]{LOCATION_PREFIX + "%"});
+    }
+}
@@ -16,20 +16,30 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +66,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.HourlyWeatherEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -512,4 +527,591 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        The store_forecast call writes a location's forecast and drops the expired days in one
+        go, and tells observers about it once.
+     */
+    public void testStoreForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] forecastValues = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues values : forecastValues) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherEntry.EXTRA_LOCATION_ID, locationRowId);
+        // the first test day has already gone by
+        extras.putLong(WeatherEntry.EXTRA_EXPIRED_DATE, TestUtilities.TEST_DATE);
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, forecastValues);
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        Bundle result = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherEntry.METHOD_STORE_FORECAST, null, extras);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.EXTRA_INSERTED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: The expired day wasn't deleted",
+                BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 1; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            forecastValues[i].put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            TestUtilities.validateCurrentRecord("testStoreForecast.  Error validating WeatherEntry " + i,
+                    cursor, forecastValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        Saving a location must reuse its row if it is there already, and must not make one up
+        for a location that was never stored; that one waits for the sync to store it.
+        Removing a location must keep the row around for the forecast that still points at it.
+     */
+    public void testSavedLocations() {
+        mContext.getContentResolver().delete(WeatherContract.SyncStateEntry.CONTENT_URI, null, null);
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        String northPole = testValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+
+        assertTrue(SavedLocations.getAll(mContext.getContentResolver()).isEmpty());
+
+        SavedLocations.add(mContext.getContentResolver(), northPole);
+        SavedLocations.add(mContext.getContentResolver(), "94043");
+        assertEquals(Arrays.asList(northPole, "94043"),
+                SavedLocations.getAll(mContext.getContentResolver()));
+        assertTrue(SavedLocations.isSaved(mContext.getContentResolver(), "94043"));
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: Saving a location added a row", 1, cursor.getCount());
+        cursor.close();
+
+        // Once a sync stores the pending location, it is saved on its row
+        ContentValues mountainView = TestUtilities.createNorthPoleLocationValues();
+        mountainView.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        mountainView.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, mountainView);
+        SavedLocations.savePending(mContext.getContentResolver());
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_NAME},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " + LocationEntry.COLUMN_SAVED + " = 1",
+                new String[]{"94043"}, null);
+        assertTrue("Error: The stored location wasn't saved", cursor.moveToFirst());
+        assertEquals("Mountain View", cursor.getString(0));
+        cursor.close();
+        assertEquals(Arrays.asList(northPole, "94043"),
+                SavedLocations.getAll(mContext.getContentResolver()));
+
+        SavedLocations.remove(mContext.getContentResolver(), northPole);
+        assertEquals(Arrays.asList("94043"), SavedLocations.getAll(mContext.getContentResolver()));
+        assertFalse(SavedLocations.isSaved(mContext.getContentResolver(), northPole));
+        cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Storing a forecast again must leave the days that didn't change alone, and only touch
+        the columns that did change on the others.
+     */
+    public void testStoreForecastUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Bundle result = storeForecast(locationRowId, createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.EXTRA_INSERTED));
+        long firstDayId = getWeatherId(TestUtilities.TEST_DATE);
+
+        result = storeForecast(locationRowId, createBulkInsertWeatherValues(locationRowId));
+        assertEquals(0, result.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(0, result.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, result.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        assertEquals("Error: An unchanged day was rewritten",
+                firstDayId, getWeatherId(TestUtilities.TEST_DATE));
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        result = storeForecast(locationRowId, changedValues);
+        assertEquals(0, result.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals(1, result.getInt(WeatherEntry.EXTRA_UPDATED));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1,
+                result.getInt(WeatherEntry.EXTRA_UNCHANGED));
+        assertEquals("Error: A changed day wasn't updated in place",
+                firstDayId, getWeatherId(TestUtilities.TEST_DATE));
+    }
+
+    private Bundle storeForecast(long locationRowId, ContentValues[] forecastValues) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherEntry.EXTRA_LOCATION_ID, locationRowId);
+        extras.putLong(WeatherEntry.EXTRA_EXPIRED_DATE, 0);
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, forecastValues);
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherEntry.METHOD_STORE_FORECAST, null, extras);
+    }
+
+    private long getWeatherId(long date) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(WeatherContract.normalizeDate(date))},
+                null
+        );
+        assertTrue("Error: No weather stored for " + date, cursor.moveToFirst());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
+    /*
+        Bulk inserting into the replace forecast URI must store the new window and drop the
+        days of that location before it, without touching other locations.
+     */
+    public void testReplaceForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues otherValues = TestUtilities.createNorthPoleLocationValues();
+        otherValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        long otherRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherValues));
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(otherRowId));
+
+        // The same window, moved on by a day
+        ContentValues[] window = createBulkInsertWeatherValues(locationRowId);
+        for (ContentValues values : window) {
+            values.put(WeatherEntry.COLUMN_DATE,
+                    values.getAsLong(WeatherEntry.COLUMN_DATE) + DateUtils.DAY_IN_MILLIS);
+        }
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        int count = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildReplaceForecastUri(locationRowId), window);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, count);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationRowId)},
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals("Error: The days before the window weren't dropped",
+                BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testReplaceForecast.  Error validating WeatherEntry " + i,
+                    cursor, window[i]);
+        }
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(otherRowId)},
+                null
+        );
+        assertEquals("Error: Another location's forecast was touched", 1, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A batch must be applied in one transaction: when an operation fails, the ones before
+        it must be rolled back, and when all succeed, observers must hear about it.
+     */
+    public void testApplyBatch() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        ContentValues incompleteValues = TestUtilities.createWeatherValues(locationRowId);
+        incompleteValues.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                .withValues(incompleteValues).build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: A batch with a failing operation was applied");
+        } catch (SQLException e) {
+            // expected
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: The operations before the failing one weren't rolled back",
+                0, cursor.getCount());
+        cursor.close();
+
+        operations.remove(operations.size() - 1);
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results.length);
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        Asking for the same forecast twice must be answered from the provider's cache the
+        second time, with the same rows, and a write must drop the cached result.
+     */
+    public void testQueryCache() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Bundle before = getQueryCacheStats();
+        Cursor cursor = mContext.getContentResolver().query(forecastUri, null, null, null, null);
+        TestUtilities.validateCursor("testQueryCache.  Error validating the first query.",
+                cursor, weatherValues);
+        cursor = mContext.getContentResolver().query(forecastUri, null, null, null, null);
+        TestUtilities.validateCursor("testQueryCache.  Error validating the cached query.",
+                cursor, weatherValues);
+        Bundle after = getQueryCacheStats();
+        assertEquals("Error: The first query wasn't a miss",
+                before.getLong(WeatherContract.EXTRA_MISSES) + 1,
+                after.getLong(WeatherContract.EXTRA_MISSES));
+        assertEquals("Error: The second query wasn't answered from the cache",
+                before.getLong(WeatherContract.EXTRA_HITS) + 1,
+                after.getLong(WeatherContract.EXTRA_HITS));
+
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 80);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, weatherValues,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)});
+
+        cursor = mContext.getContentResolver().query(forecastUri, null, null, null, null);
+        TestUtilities.validateCursor("testQueryCache.  Error validating the query after the update.",
+                cursor, weatherValues);
+        Bundle updated = getQueryCacheStats();
+        assertEquals("Error: The update didn't drop the cached result",
+                after.getLong(WeatherContract.EXTRA_MISSES) + 1,
+                updated.getLong(WeatherContract.EXTRA_MISSES));
+    }
+
+    /*
+        A write to the forecast must only drop the cached results of its own location that
+        read the days it changed.
+     */
+    public void testQueryCacheKeepsUnchangedDays() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        ContentValues otherValues = TestUtilities.createNorthPoleLocationValues();
+        otherValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        long otherRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherValues));
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        queryAndClose(forecastUri);
+        queryAndClose(dayUri);
+
+        // Another location's forecast leaves both alone
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(otherRowId));
+        Bundle before = getQueryCacheStats();
+        queryAndClose(forecastUri);
+        queryAndClose(dayUri);
+        Bundle after = getQueryCacheStats();
+        assertEquals("Error: Another location's write dropped the cached results",
+                before.getLong(WeatherContract.EXTRA_HITS) + 2,
+                after.getLong(WeatherContract.EXTRA_HITS));
+
+        // The next day only drops the results that read it
+        ContentValues nextDay = TestUtilities.createWeatherValues(locationRowId);
+        nextDay.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + DateUtils.DAY_IN_MILLIS);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, nextDay);
+        queryAndClose(dayUri);
+        queryAndClose(forecastUri);
+        Bundle inserted = getQueryCacheStats();
+        assertEquals("Error: Another day's write dropped the cached day",
+                after.getLong(WeatherContract.EXTRA_HITS) + 1,
+                inserted.getLong(WeatherContract.EXTRA_HITS));
+        assertEquals("Error: The write didn't drop the cached forecast that reads its day",
+                after.getLong(WeatherContract.EXTRA_MISSES) + 1,
+                inserted.getLong(WeatherContract.EXTRA_MISSES));
+    }
+
+    private void queryAndClose(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertNotNull(cursor);
+        cursor.close();
+    }
+
+    /*
+        Storing a forecast must be notified on the location it belongs to, carrying the days
+        that changed, and must leave the observers of other locations alone.
+     */
+    public void testStoreForecastNotifiesLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues otherValues = TestUtilities.createNorthPoleLocationValues();
+        otherValues.put(LocationEntry.COLUMN_LOCATION_SETTING, "elsewhere");
+        long otherRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherValues));
+
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                locationObserver);
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("elsewhere"), true, otherObserver);
+
+        ContentValues[] forecastValues = createBulkInsertWeatherValues(locationRowId);
+        storeForecast(locationRowId, forecastValues);
+        locationObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            Uri changedUri = locationObserver.mChangedUri;
+            assertEquals(TestUtilities.TEST_LOCATION,
+                    WeatherEntry.getLocationSettingFromUri(changedUri));
+            assertEquals(WeatherContract.normalizeDate(TestUtilities.TEST_DATE),
+                    WeatherEntry.getFirstChangedDateFromUri(changedUri));
+            assertEquals(WeatherContract.normalizeDate(
+                    forecastValues[BULK_INSERT_RECORDS_TO_INSERT - 1].getAsLong(
+                            WeatherEntry.COLUMN_DATE)),
+                    WeatherEntry.getLastChangedDateFromUri(changedUri));
+        }
+
+        // The other location's first notification must be for its own day, not the one above
+        ContentValues otherWeather = TestUtilities.createWeatherValues(otherRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, otherWeather);
+        otherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertEquals("Error: Another location's observer was told about this forecast",
+                    WeatherEntry.buildWeatherLocationWithDate("elsewhere",
+                            TestUtilities.TEST_DATE),
+                    otherObserver.mChangedUri);
+        }
+    }
+
+    private Bundle getQueryCacheStats() {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_QUERY_CACHE_STATS, null, null);
+    }
+
+    /*
+        Storing an hourly forecast again must replace the entries for the same times, and drop
+        the ones that went past the retention window.
+     */
+    public void testStoreHourlyForecast() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        final int entries = 40;
+        final long step = 3 * DateUtils.HOUR_IN_MILLIS;
+        final long firstTime = TestUtilities.TEST_DATE * 1000;
+        Bundle result = storeHourlyForecast(locationRowId, firstTime, entries, 0);
+        assertEquals(entries, result.getInt(WeatherEntry.EXTRA_INSERTED));
+
+        // The next sync starts one step later, by which time the first entry expired
+        result = storeHourlyForecast(locationRowId, firstTime + step, entries, firstTime + step);
+        assertEquals(entries, result.getInt(WeatherEntry.EXTRA_INSERTED));
+        assertEquals("Error: The expired entry wasn't deleted",
+                1, result.getInt(WeatherEntry.EXTRA_DELETED));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyWeatherEntry.buildHourlyWeatherLocation(
+                        TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " ASC"
+        );
+        assertEquals("Error: Entries for the same time weren't replaced", entries, cursor.getCount());
+        cursor.moveToFirst();
+        ContentValues expected = TestUtilities.createHourlyWeatherValues(firstTime + step);
+        expected.put(WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY, locationRowId);
+        expected.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        TestUtilities.validateCurrentRecord("testStoreHourlyForecast.  Error validating entry",
+                cursor, expected);
+        cursor.close();
+    }
+
+    private Bundle storeHourlyForecast(long locationRowId, long firstTime, int entries,
+                                       long expiredTime) {
+        ContentValues[] hourlyValues = new ContentValues[entries];
+        for (int i = 0; i < entries; i++) {
+            hourlyValues[i] = TestUtilities.createHourlyWeatherValues(
+                    firstTime + i * 3 * DateUtils.HOUR_IN_MILLIS);
+        }
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherEntry.EXTRA_LOCATION_ID, locationRowId);
+        extras.putLong(WeatherContract.HourlyWeatherEntry.EXTRA_EXPIRED_TIME, expiredTime);
+        extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, hourlyValues);
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.HourlyWeatherEntry.METHOD_STORE_HOURLY_FORECAST, null, extras);
+    }
+
+    /*
+        The metrics table keeps the last HISTORY_SIZE syncs, however many phases each has.
+     */
+    public void testSyncMetricsHistory() {
+        mContext.getContentResolver().delete(WeatherContract.SyncMetricsEntry.CONTENT_URI, null, null);
+
+        final int syncs = WeatherContract.SyncMetricsEntry.HISTORY_SIZE + 1;
+        for (long syncId = 1; syncId <= syncs; syncId++) {
+            ContentValues[] phases = new ContentValues[2];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new ContentValues();
+                phases[i].put(WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID, syncId);
+                phases[i].put(WeatherContract.SyncMetricsEntry.COLUMN_PHASE,
+                        i == 0 ? WeatherContract.SyncMetricsEntry.PHASE_PARSE
+                                : WeatherContract.SyncMetricsEntry.PHASE_TOTAL);
+                phases[i].put(WeatherContract.SyncMetricsEntry.COLUMN_DURATION, 1000L * i);
+            }
+            assertEquals(phases.length, mContext.getContentResolver().bulkInsert(
+                    WeatherContract.SyncMetricsEntry.CONTENT_URI, phases));
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID},
+                null,
+                null,
+                WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID + " ASC"
+        );
+        assertEquals("Error: The metrics history wasn't trimmed",
+                WeatherContract.SyncMetricsEntry.HISTORY_SIZE * 2, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: The oldest sync wasn't the one dropped", 2, cursor.getLong(0));
+        cursor.close();
+    }
+
+    /*
+        The sync state of a sync goes in as one batch, and only the observers of the keys that
+        changed hear about it.
+     */
+    public void testSyncState() {
+        mContext.getContentResolver().delete(WeatherContract.SyncStateEntry.CONTENT_URI, null, null);
+        String statusKey = WeatherContract.SyncStateEntry.buildLocationStatusKey(
+                TestUtilities.TEST_LOCATION);
+        String notificationKey = WeatherContract.SyncStateEntry.KEY_LAST_NOTIFICATION;
+
+        TestUtilities.TestContentObserver tco = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.SyncStateEntry.buildSyncStateUri(statusKey), false, tco);
+
+        Map<String, Long> state = new HashMap<String, Long>();
+        state.put(statusKey, 4L);
+        state.put(notificationKey, TestUtilities.TEST_DATE);
+        SyncState.putAll(mContext.getContentResolver(), state);
+
+        // If this fails, the provider isn't notifying the URI of the key that changed
+        tco.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(tco);
+
+        assertEquals(4L, SyncState.getLong(mContext.getContentResolver(), statusKey, -1));
+        assertEquals(TestUtilities.TEST_DATE,
+                SyncState.getLong(mContext.getContentResolver(), notificationKey, -1));
+
+        // Writing a key again replaces its value instead of adding a row
+        SyncState.putLong(mContext.getContentResolver(), statusKey, 0L);
+        assertEquals(0L, SyncState.getLong(mContext.getContentResolver(), statusKey, -1));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncStateEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: Rewriting a key added a row", 2, cursor.getCount());
+        cursor.close();
+
+        mContext.getContentResolver().delete(
+                WeatherContract.SyncStateEntry.buildSyncStateUri(statusKey), null, null);
+        assertEquals(-1L, SyncState.getLong(mContext.getContentResolver(), statusKey, -1));
+    }
+
+    /*
+        Upserting a location must keep its row, refresh its city, coordinates and city ID when
+        they change, keep a known city ID the values leave out, and leave the cache agreeing
+        with the table.
+     */
+    public void testUpsertLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue("Error: The location wasn't added", locationRowId != -1);
+        assertEquals(locationRowId, LocationIdCache.getId(TestUtilities.TEST_LOCATION, 0,
+                "North Pole", testValues.getAsDouble(LocationEntry.COLUMN_COORD_LAT),
+                testValues.getAsDouble(LocationEntry.COLUMN_COORD_LONG)));
+
+        locationUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        assertEquals("Error: Upserting the same location added a row",
+                locationRowId, ContentUris.parseId(locationUri));
+
+        testValues.put(LocationEntry.COLUMN_CITY_NAME, "Santa's Village");
+        testValues.put(LocationEntry.COLUMN_CITY_ID, 5859699L);
+        locationUri = mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, testValues);
+        assertEquals(locationRowId, ContentUris.parseId(locationUri));
+        assertEquals(5859699L, LocationIdCache.getCityId(TestUtilities.TEST_LOCATION));
+
+        // Values without a city ID, from a saved location for instance, don't forget it
+        ContentValues withoutCityId = new ContentValues(testValues);
+        withoutCityId.remove(LocationEntry.COLUMN_CITY_ID);
+        mContext.getContentResolver().insert(LocationEntry.UPSERT_URI, withoutCityId);
+        assertEquals(5859699L, LocationIdCache.getCityId(TestUtilities.TEST_LOCATION));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null
+        );
+        assertEquals("Error: Upserting a changed location added a row", 1, cursor.getCount());
+        TestUtilities.validateCursor("testUpsertLocation.  Error validating location",
+                cursor, testValues);
+
+        // Changing the table any other way drops what the cache knows
+        SavedLocations.add(mContext.getContentResolver(), TestUtilities.TEST_LOCATION);
+        assertEquals("Error: The cache outlived a change to the location table",
+                -1, LocationIdCache.getId(TestUtilities.TEST_LOCATION));
+    }
 }
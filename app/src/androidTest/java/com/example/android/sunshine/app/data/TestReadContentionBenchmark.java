@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    Measures how long the forecast list's query takes while a sync stores the 14 day forecasts
+    of 10 and 50 locations, one provider call per location, and logs it next to the same query
+    on an idle database:
+
+        adb logcat -s TestReadContentionBenchmark
+
+    With the write-ahead log the two should be close; with a rollback journal every query that
+    lands on a commit waits for it.
+ */
+@LargeTest
+public class TestReadContentionBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = TestReadContentionBenchmark.class.getSimpleName();
+
+    private static final String LOCATION_PREFIX = "contention-";
+    private static final int DAYS = 14;
+    // Each round rewrites every day of every location, so each one is a full sync's worth
+    private static final int ROUNDS = 5;
+    private static final int IDLE_READS = 200;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteBenchmarkRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteBenchmarkRecords();
+        super.tearDown();
+    }
+
+    public void testReadsDuring10LocationIngest() throws Exception {
+        benchmark(10);
+    }
+
+    public void testReadsDuring50LocationIngest() throws Exception {
+        benchmark(50);
+    }
+
+    private void benchmark(int locations) throws Exception {
+        final long[] locationIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_PREFIX + i);
+            locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LAT, i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LONG, -i);
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    locationValues);
+            locationIds[i] = ContentUris.parseId(locationUri);
+        }
+        final long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ingest(locationIds, today, 0);
+
+        // The forecast list of the first location, as ForecastFragment asks for it
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(LOCATION_PREFIX + 0,
+                today);
+
+        long[] idle = new long[IDLE_READS];
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = timeQuery(forecastUri);
+        }
+
+        final AtomicReference<Throwable> writerError = new AtomicReference<Throwable>();
+        final long[] writeNanos = new long[1];
+        Thread writer = new Thread("contention-writer") {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    for (int round = 1; round <= ROUNDS; round++) {
+                        ingest(locationIds, today, round);
+                    }
+                    writeNanos[0] = System.nanoTime() - start;
+                } catch (Throwable t) {
+                    writerError.set(t);
+                }
+            }
+        };
+
+        long[] busy = new long[1024];
+        int busyCount = 0;
+        writer.start();
+        while (writer.isAlive()) {
+            if (busyCount == busy.length) {
+                busy = Arrays.copyOf(busy, busy.length * 2);
+            }
+            busy[busyCount++] = timeQuery(forecastUri);
+        }
+        writer.join();
+        if (writerError.get() != null) {
+            throw new AssertionError(writerError.get());
+        }
+        busy = Arrays.copyOf(busy, busyCount);
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d locations, %d rounds of %d days in %.1f ms; idle reads: %s; "
+                        + "%d reads during the ingest: %s",
+                locations, ROUNDS, DAYS, writeNanos[0] / 1e6, describe(idle),
+                busy.length, describe(busy)));
+    }
+
+    /*
+        Runs the query to the end, checks that it never sees a forecast half written, and
+        returns how long it took.
+     */
+    private long timeQuery(Uri forecastUri) {
+        long start = System.nanoTime();
+        Cursor cursor = mContext.getContentResolver().query(forecastUri,
+                new String[]{WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        int count = cursor.getCount();
+        double firstMax = 0;
+        boolean consistent = true;
+        if (cursor.moveToFirst()) {
+            firstMax = cursor.getDouble(1);
+            while (cursor.moveToNext()) {
+                consistent &= cursor.getDouble(1) == firstMax;
+            }
+        }
+        cursor.close();
+        long nanos = System.nanoTime() - start;
+
+        assertEquals("Error: The query didn't find the whole forecast", DAYS, count);
+        assertTrue("Error: The query saw a forecast half way through being stored", consistent);
+        return nanos;
+    }
+
+    /*
+        Stores a 14 day forecast for every location, one call each like a sync.  All days of a
+        round share a temperature, so a reader can tell whether it saw a single round.
+     */
+    private void ingest(long[] locationIds, long today, int round) {
+        for (long locationId : locationIds) {
+            ContentValues[] days = new ContentValues[DAYS];
+            for (int i = 0; i < DAYS; i++) {
+                days[i] = TestUtilities.createWeatherValues(locationId);
+                days[i].put(WeatherEntry.COLUMN_DATE, today + i * DateUtils.DAY_IN_MILLIS);
+                days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 20 + round);
+            }
+            Bundle extras = new Bundle();
+            extras.putLong(WeatherEntry.EXTRA_LOCATION_ID, locationId);
+            extras.putLong(WeatherEntry.EXTRA_EXPIRED_DATE, today - DateUtils.DAY_IN_MILLIS);
+            extras.putParcelableArray(WeatherEntry.EXTRA_VALUES, days);
+            mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherEntry.METHOD_STORE_FORECAST, null, extras);
+        }
+    }
+
+    private static String describe(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        if (sorted.length == 0) {
+            return "none";
+        }
+        return String.format(Locale.US, "median %.2f ms, 95th %.2f ms, max %.2f ms",
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.95)] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    private void deleteBenchmarkRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " IN (SELECT " + LocationEntry._ID + " FROM "
+                        + LocationEntry.TABLE_NAME + " WHERE "
+                        + LocationEntry.COLUMN_LOCATION_SETTING + " LIKE ?)",
+                new String[]{LOCATION_PREFIX + "%"});
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry.COLUMN_LOCATION_SETTING + " LIKE ?",
+                new String[]{LOCATION_PREFIX + "%"});
+    }
+}
@@ -34,8 +34,18 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_REPLACE_FORECAST = WeatherContract.WeatherEntry.buildReplaceForecastUri(TEST_LOCATION_ID);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_UPSERT = WeatherContract.LocationEntry.UPSERT_URI;
+    // content://com.example.android.sunshine.app/validator"
+    private static final Uri TEST_VALIDATOR_DIR = WeatherContract.ValidatorEntry.CONTENT_URI;
+    private static final Uri TEST_SYNC_METRICS_DIR = WeatherContract.SyncMetricsEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WEATHER_DIR = WeatherContract.HourlyWeatherEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WEATHER_WITH_LOCATION_DIR = WeatherContract.HourlyWeatherEntry.buildHourlyWeatherLocation(LOCATION_QUERY);
+    private static final Uri TEST_SYNC_STATE_DIR = WeatherContract.SyncStateEntry.CONTENT_URI;
+    private static final Uri TEST_SYNC_STATE_WITH_KEY = WeatherContract.SyncStateEntry.buildSyncStateUri(
+            WeatherContract.SyncStateEntry.buildLocationStatusKey(LOCATION_QUERY));
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +61,23 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The REPLACE FORECAST URI was matched incorrectly.",
+                testMatcher.match(TEST_REPLACE_FORECAST), WeatherProvider.REPLACE_FORECAST);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION UPSERT URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_UPSERT), WeatherProvider.LOCATION_UPSERT);
+        assertEquals("Error: The VALIDATOR URI was matched incorrectly.",
+                testMatcher.match(TEST_VALIDATOR_DIR), WeatherProvider.VALIDATOR);
+        assertEquals("Error: The SYNC_METRICS URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_METRICS_DIR), WeatherProvider.SYNC_METRICS);
+        assertEquals("Error: The HOURLY_WEATHER URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WEATHER_DIR), WeatherProvider.HOURLY_WEATHER);
+        assertEquals("Error: The HOURLY_WEATHER WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WEATHER_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WEATHER_WITH_LOCATION);
+        assertEquals("Error: The SYNC_STATE URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATE_DIR), WeatherProvider.SYNC_STATE);
+        assertEquals("Error: The SYNC_STATE WITH KEY URI was matched incorrectly.",
+                testMatcher.match(TEST_SYNC_STATE_WITH_KEY), WeatherProvider.SYNC_STATE_WITH_KEY);
     }
 }
@@ -77,6 +77,23 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        One 3 hour step of an hourly forecast, without its location.
+     */
+    static ContentValues createHourlyWeatherValues(long time) {
+        ContentValues hourlyValues = new ContentValues();
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_TIME, time);
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES, 1.1);
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY, 1.2);
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE, 1.3);
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_TEMP, 70);
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID, 321);
+
+        return hourlyValues;
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -122,6 +139,8 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        // The Uri of the first change, on versions that pass it along
+        Uri mChangedUri;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -142,6 +161,9 @@ public class TestUtilities extends AndroidTestCase {
 
         @Override
         public void onChange(boolean selfChange, Uri uri) {
+            if (!mContentChanged) {
+                mChangedUri = uri;
+            }
             mContentChanged = true;
         }
 
@@ -17,6 +17,7 @@ package com.example.android.sunshine.app.data;
 
 import android.net.Uri;
 import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
 
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
@@ -42,4 +43,36 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        A change to one day is notified on that day's URI, a change to several on the
+        location's, and either way the dates must come back out of the URI.
+     */
+    public void testBuildWeatherLocationChange() {
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherLocationChange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, TEST_WEATHER_DATE);
+        assertEquals("Error: A single changed day wasn't notified on its own Uri",
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        TEST_WEATHER_LOCATION, TEST_WEATHER_DATE), dayUri);
+        assertEquals(TEST_WEATHER_DATE,
+                WeatherContract.WeatherEntry.getFirstChangedDateFromUri(dayUri));
+        assertEquals(TEST_WEATHER_DATE,
+                WeatherContract.WeatherEntry.getLastChangedDateFromUri(dayUri));
+
+        long lastDate = TEST_WEATHER_DATE + 6 * DateUtils.DAY_IN_MILLIS;
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherLocationChange(
+                TEST_WEATHER_LOCATION, TEST_WEATHER_DATE, lastDate);
+        assertEquals("Error: Several changed days weren't notified on the location's Uri",
+                TEST_WEATHER_LOCATION,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(rangeUri));
+        assertEquals(2, rangeUri.getPathSegments().size());
+        assertEquals(TEST_WEATHER_DATE,
+                WeatherContract.WeatherEntry.getFirstChangedDateFromUri(rangeUri));
+        assertEquals(lastDate, WeatherContract.WeatherEntry.getLastChangedDateFromUri(rangeUri));
+
+        Uri locationUri = WeatherContract.WeatherEntry.buildWeatherLocation(TEST_WEATHER_LOCATION);
+        assertEquals(0, WeatherContract.WeatherEntry.getFirstChangedDateFromUri(locationUri));
+        assertEquals(Long.MAX_VALUE,
+                WeatherContract.WeatherEntry.getLastChangedDateFromUri(locationUri));
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.SyncState;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.FakeWeatherServer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/*
+    Drives a CircuitBreaker with real requests against a FakeWeatherServer, on a clock the
+    test controls, to check that it opens, short-circuits, probes and closes again.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    private static final String KEY_PREFIX = "test_breaker:";
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?q=94043&cnt=14";
+
+    private FakeWeatherServer mServer;
+    private ForecastFetcher mFetcher;
+    private long mNow = 1000000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+        mFetcher = new ForecastFetcher(new ValidatorStore(mContext.getContentResolver()));
+        deleteBreakerState();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        deleteBreakerState();
+        super.tearDown();
+    }
+
+    private void deleteBreakerState() {
+        mContext.getContentResolver().delete(WeatherContract.SyncStateEntry.CONTENT_URI,
+                WeatherContract.SyncStateEntry.COLUMN_KEY + " LIKE ?",
+                new String[] {KEY_PREFIX + "%"});
+    }
+
+    private CircuitBreaker createBreaker() {
+        return new CircuitBreaker(mContext.getContentResolver(), KEY_PREFIX, new Random(0)) {
+            @Override
+            long currentTimeMillis() {
+                return mNow;
+            }
+        };
+    }
+
+    private void serve(final int code) throws IOException {
+        FakeWeatherServer.Dispatcher dispatcher = new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return new FakeWeatherServer.Response(code).setBody("{\"cod\":\"" + code + "\"}");
+            }
+        };
+        if (mServer == null) {
+            mServer = new FakeWeatherServer(dispatcher);
+        } else {
+            mServer.setDispatcher(dispatcher);
+        }
+    }
+
+    /*
+        Sends a request if the breaker allows it and reports the outcome, the way SyncEngine
+        does.
+     */
+    private boolean fetch(CircuitBreaker breaker) {
+        if (!breaker.allowRequest()) {
+            return false;
+        }
+        ForecastFetcher.Download download = null;
+        try {
+            download = mFetcher.open(mServer.getUrl(FORECAST_PATH), false);
+            TestForecastFetcher.readBody(download);
+            breaker.onSuccess();
+        } catch (IOException e) {
+            breaker.onFailure();
+        } finally {
+            if (download != null) {
+                download.close();
+            }
+        }
+        return true;
+    }
+
+    public void testOpensAfterRepeatedFailures() throws IOException {
+        serve(500);
+        CircuitBreaker breaker = createBreaker();
+
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+            assertTrue(fetch(breaker));
+        }
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertEquals(CircuitBreaker.FAILURE_THRESHOLD, mServer.getRequestCount());
+
+        assertFalse("Error: An open breaker let a request through", fetch(breaker));
+        assertEquals("Error: An open breaker reached the server",
+                CircuitBreaker.FAILURE_THRESHOLD, mServer.getRequestCount());
+
+        long delay = breaker.getRetryTime() - mNow;
+        assertTrue(delay >= CircuitBreaker.BASE_DELAY_MILLIS / 2);
+        assertTrue(delay <= CircuitBreaker.BASE_DELAY_MILLIS);
+    }
+
+    public void testStateSurvivesARestart() throws IOException {
+        serve(503);
+        CircuitBreaker breaker = createBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            fetch(breaker);
+        }
+        // Saved the way SyncEngine does once the sync is over
+        Map<String, Long> state = new HashMap<String, Long>();
+        breaker.saveTo(state);
+        SyncState.putAll(mContext.getContentResolver(), state);
+
+        CircuitBreaker restarted = createBreaker();
+        assertEquals(CircuitBreaker.STATE_OPEN, restarted.getState());
+        assertEquals(breaker.getRetryTime(), restarted.getRetryTime());
+        assertFalse(fetch(restarted));
+    }
+
+    public void testHalfOpenProbe() throws IOException {
+        serve(500);
+        CircuitBreaker breaker = createBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            fetch(breaker);
+        }
+        long firstDelay = breaker.getRetryTime() - mNow;
+
+        // The probe fails: the breaker opens again, for longer
+        mNow = breaker.getRetryTime();
+        assertEquals(CircuitBreaker.STATE_HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse("Error: A second probe was let through while the first was in flight",
+                breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue("Error: The backoff didn't grow",
+                breaker.getRetryTime() - mNow >= firstDelay);
+
+        // The server is back: the next probe closes the breaker
+        serve(200);
+        mNow = breaker.getRetryTime();
+        int requests = mServer.getRequestCount();
+        assertTrue(fetch(breaker));
+        assertEquals(requests + 1, mServer.getRequestCount());
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(0, breaker.getRetryTime());
+        assertTrue(fetch(breaker));
+    }
+
+    public void testBackoffIsCapped() {
+        CircuitBreaker breaker = createBreaker();
+        for (int openings = 1; openings < 40; openings++) {
+            long delay = breaker.getBackoffDelay(openings);
+            assertTrue(delay > 0);
+            assertTrue(delay <= CircuitBreaker.MAX_DELAY_MILLIS);
+        }
+    }
+}
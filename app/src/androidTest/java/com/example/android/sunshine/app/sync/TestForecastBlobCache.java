@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Checks that ForecastBlobCache keeps responses intact, evicts the least recently used ones
+    first, and that SyncEngine rebuilds the database from it.
+ */
+public class TestForecastBlobCache extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "cache-test/99705";
+    private static final String FORECAST_BODY = "{\"cod\":\"200\","
+            + "\"city\":{\"name\":\"North Pole\",\"coord\":{\"lat\":64.7488,\"lon\":-147.353}},"
+            + "\"list\":["
+            + "{\"temp\":{\"min\":-20.5,\"max\":-10.0},\"pressure\":1020.5,\"humidity\":80,"
+            + "\"weather\":[{\"id\":600,\"main\":\"Snow\"}],\"speed\":4.1,\"deg\":270},"
+            + "{\"temp\":{\"min\":-22.0,\"max\":-12.5},\"pressure\":1018.0,\"humidity\":75,"
+            + "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],\"speed\":2.0,\"deg\":180}]}";
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getCacheDir(), "test-forecast-cache");
+        deleteDirectory();
+        deleteTestLocation();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        deleteTestLocation();
+        super.tearDown();
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private void deleteTestLocation() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {TEST_LOCATION}, null);
+        try {
+            while (cursor.moveToNext()) {
+                mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[] {Long.toString(cursor.getLong(0))});
+            }
+        } finally {
+            cursor.close();
+        }
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {TEST_LOCATION});
+    }
+
+    /*
+        A committed response must read back byte for byte, along with its start day, and an
+        aborted one must leave the previous response in place.
+     */
+    public void testCommitAndAbort() throws IOException {
+        ForecastBlobCache cache = new ForecastBlobCache(mDirectory,
+                ForecastBlobCache.DEFAULT_MAX_SIZE);
+        assertNull("Error: Nothing was cached yet", cache.get(TEST_LOCATION));
+
+        write(cache, TEST_LOCATION, 2457000, FORECAST_BODY, true);
+        assertEquals(FORECAST_BODY, read(cache, TEST_LOCATION, 2457000));
+
+        write(cache, TEST_LOCATION, 2457001, "{}", false);
+        assertEquals("Error: An aborted response replaced the cached one",
+                FORECAST_BODY, read(cache, TEST_LOCATION, 2457000));
+
+        List<String> locationSettings = cache.getLocationSettings();
+        assertEquals(1, locationSettings.size());
+        assertEquals("Error: The location setting didn't survive the file name",
+                TEST_LOCATION, locationSettings.get(0));
+    }
+
+    /*
+        Once the cache is over its size, the response used longest ago has to go first.
+     */
+    public void testLruEviction() throws IOException {
+        // Random bytes don't compress, which makes the sizes predictable
+        byte[] noise = new byte[4096];
+        new Random(0).nextBytes(noise);
+        String body = new String(noise, "ISO-8859-1");
+
+        ForecastBlobCache cache = new ForecastBlobCache(mDirectory, 3 * noise.length);
+        write(cache, "first", 2457000, body, true);
+        write(cache, "second", 2457000, body, true);
+        // File times can be as coarse as a second
+        new File(mDirectory, "first.json.gz").setLastModified(1000);
+        new File(mDirectory, "second.json.gz").setLastModified(2000);
+        cache.get("first").close();
+
+        write(cache, "third", 2457000, body, true);
+        assertTrue(cache.size() <= 3 * noise.length);
+        assertNull("Error: The least recently used response wasn't evicted",
+                cache.get("second"));
+        assertNotNull(cache.get("first"));
+        assertNotNull(cache.get("third"));
+    }
+
+    /*
+        A cached response has to bring back both the location and its forecast once the
+        database lost them, without any network involved.
+     */
+    public void testReingest() throws IOException {
+        ForecastBlobCache cache = new ForecastBlobCache(mDirectory,
+                ForecastBlobCache.DEFAULT_MAX_SIZE);
+        write(cache, TEST_LOCATION, getJulianToday(), FORECAST_BODY, true);
+
+        CircuitBreaker breaker = new CircuitBreaker(mContext.getContentResolver(),
+                "test_blob_cache_breaker:");
+        SyncEngine engine = new SyncEngine(mContext, 1, new SyncMetrics(), breaker, cache);
+        List<SyncEngine.LocationResult> results = engine.reingest();
+        assertEquals(1, results.size());
+        assertEquals(2, results.get(0).inserted);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                null, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals("Error: The cached forecast wasn't restored", 2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("North Pole", cursor.getString(
+                    cursor.getColumnIndex(WeatherContract.LocationEntry.COLUMN_CITY_NAME)));
+        } finally {
+            cursor.close();
+        }
+
+        assertTrue("Error: A location that has its forecast was restored again",
+                engine.reingest().isEmpty());
+    }
+
+    private static void write(ForecastBlobCache cache, String locationSetting,
+                              int julianStartDay, String body, boolean commit)
+            throws IOException {
+        ForecastBlobCache.Editor editor = cache.edit(locationSetting, julianStartDay);
+        assertNotNull(editor);
+        OutputStream out = editor.getStream();
+        out.write(body.getBytes("ISO-8859-1"));
+        if (commit) {
+            assertTrue(editor.commit());
+        } else {
+            editor.abort();
+        }
+    }
+
+    private static String read(ForecastBlobCache cache, String locationSetting,
+                               int julianStartDay) throws IOException {
+        ForecastBlobCache.Entry entry = cache.get(locationSetting);
+        assertNotNull(entry);
+        try {
+            assertEquals(julianStartDay, entry.julianStartDay);
+            InputStream body = entry.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("ISO-8859-1");
+        } finally {
+            entry.close();
+        }
+    }
+
+    private static int getJulianToday() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.FakeWeatherServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Checks that ForecastFetcher replays stored validators, recognises unchanged bodies,
+    inflates compressed responses and resumes bodies that were cut short, using a FakeWeatherServer on the loopback interface in place
+    of OpenWeatherMap.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?q=94043&cnt=14";
+    private static final String FORECAST_BODY = "{\"cod\":\"200\",\"list\":[]}";
+    private static final String ETAG = "\"v1\"";
+
+    private FakeWeatherServer mServer;
+    private ForecastFetcher mFetcher;
+    private PartialDownloadStore mPartialStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.ValidatorEntry.CONTENT_URI, null, null);
+        mFetcher = new ForecastFetcher(new ValidatorStore(mContext.getContentResolver()));
+
+        File partialDirectory = new File(mContext.getCacheDir(), "test-partial-downloads");
+        File[] files = partialDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mPartialStore = new PartialDownloadStore(partialDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        super.tearDown();
+    }
+
+    /*
+        A server that honours If-None-Match should be asked with the stored ETag, and answer
+        with a 304 that leaves nothing to read.
+     */
+    public void testEtagRevalidation() throws IOException {
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                if (ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new FakeWeatherServer.Response(304);
+                }
+                return FakeWeatherServer.Response.ok(FORECAST_BODY).setHeader("ETag", ETAG);
+            }
+        });
+        String url = mServer.getUrl(FORECAST_PATH);
+
+        ForecastFetcher.Download download = mFetcher.open(url, true);
+        assertFalse("Error: Nothing stored yet, but the forecast was reported as not modified",
+                download.isNotModified());
+        assertEquals(FORECAST_BODY, readBody(download));
+        download.commit();
+        download.close();
+        assertNull("Error: The first request shouldn't be conditional",
+                mServer.getRequest(0).getHeader("If-None-Match"));
+
+        download = mFetcher.open(url, true);
+        assertTrue("Error: The stored ETag wasn't honoured", download.isNotModified());
+        download.commit();
+        download.close();
+        assertEquals("Error: The stored ETag wasn't sent", ETAG,
+                mServer.getRequest(1).getHeader("If-None-Match"));
+    }
+
+    /*
+        Callers that no longer have the forecast must get a full response, whatever is stored.
+     */
+    public void testUnconditionalFetchSkipsValidators() throws IOException {
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return FakeWeatherServer.Response.ok(FORECAST_BODY)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Last-Modified", "Sat, 20 Dec 2014 00:00:00 GMT");
+            }
+        });
+        String url = mServer.getUrl(FORECAST_PATH);
+
+        ForecastFetcher.Download download = mFetcher.open(url, true);
+        readBody(download);
+        download.commit();
+        download.close();
+
+        download = mFetcher.open(url, false);
+        assertFalse(download.isNotModified());
+        download.close();
+        assertNull(mServer.getLastRequest().getHeader("If-None-Match"));
+        assertNull(mServer.getLastRequest().getHeader("If-Modified-Since"));
+    }
+
+    /*
+        Without any validators from the server, the body hash is all that tells an unchanged
+        forecast apart.
+     */
+    public void testBodyHashWithoutValidators() throws IOException {
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return FakeWeatherServer.Response.ok(FORECAST_BODY);
+            }
+        });
+        String url = mServer.getUrl(FORECAST_PATH);
+
+        ForecastFetcher.Download download = mFetcher.open(url, true);
+        assertFalse("Error: Nothing stored yet, but the body was reported as unchanged",
+                download.isBodyUnchanged());
+        download.commit();
+        download.close();
+
+        download = mFetcher.open(url, true);
+        assertFalse(download.isNotModified());
+        assertTrue("Error: An identical body wasn't recognised", download.isBodyUnchanged());
+        download.close();
+
+        mServer.setDispatcher(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return FakeWeatherServer.Response.ok(FORECAST_BODY + " ");
+            }
+        });
+        download = mFetcher.open(url, true);
+        assertFalse("Error: A changed body was reported as unchanged",
+                download.isBodyUnchanged());
+        download.close();
+    }
+
+    /*
+        A gzip encoded response must come out of getBody() decompressed, with both sides of
+        the transfer counted.
+     */
+    public void testGzipResponse() throws IOException {
+        final byte[] compressed = gzip(FORECAST_BODY);
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return new FakeWeatherServer.Response(200)
+                        .setHeader("Content-Encoding", "gzip")
+                        .setBody(compressed);
+            }
+        });
+
+        ForecastFetcher.Download download = mFetcher.open(mServer.getUrl(FORECAST_PATH), true);
+        assertEquals(FORECAST_BODY, readBody(download));
+        assertEquals(compressed.length, download.getCompressedBytes());
+        assertEquals(FORECAST_BODY.getBytes("UTF-8").length, download.getDecompressedBytes());
+        download.close();
+
+        String acceptEncoding = mServer.getLastRequest().getHeader("Accept-Encoding");
+        assertNotNull("Error: No Accept-Encoding was sent", acceptEncoding);
+        assertTrue(acceptEncoding.contains("gzip"));
+    }
+
+    /*
+        "deflate" shows up both zlib wrapped, as the spec says, and raw.  Both must be inflated.
+     */
+    public void testDeflateResponse() throws IOException {
+        for (final byte[] body : new byte[][] {
+                deflate(FORECAST_BODY, true), deflate(FORECAST_BODY, false)}) {
+            if (mServer != null) {
+                mServer.shutdown();
+            }
+            mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+                @Override
+                public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                    return new FakeWeatherServer.Response(200)
+                            .setHeader("Content-Encoding", "deflate")
+                            .setBody(body);
+                }
+            });
+            ForecastFetcher.Download download = mFetcher.open(mServer.getUrl(FORECAST_PATH), true);
+            assertEquals(FORECAST_BODY, readBody(download));
+            download.close();
+        }
+    }
+
+    /*
+        A body that was cut off half way must be picked up where it broke off, and come out
+        whole once the rest is in.
+     */
+    public void testResumeAfterCutOff() throws IOException {
+        final String body = createLongBody();
+        final byte[] compressed = gzip(body);
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                String range = request.getHeader("Range");
+                if (range != null && ETAG.equals(request.getHeader("If-Range"))) {
+                    int start = Integer.parseInt(
+                            range.substring("bytes=".length(), range.length() - 1));
+                    return new FakeWeatherServer.Response(206)
+                            .setHeader("ETag", ETAG)
+                            .setHeader("Content-Encoding", "gzip")
+                            .setHeader("Content-Range", "bytes " + start + "-"
+                                    + (compressed.length - 1) + "/" + compressed.length)
+                            .setBody(Arrays.copyOfRange(compressed, start, compressed.length));
+                }
+                return new FakeWeatherServer.Response(200)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Accept-Ranges", "bytes")
+                        .setHeader("Content-Encoding", "gzip")
+                        .setBody(compressed)
+                        .cutOffAfter(compressed.length / 2);
+            }
+        });
+        String url = mServer.getUrl(FORECAST_PATH);
+        ForecastFetcher fetcher = new ForecastFetcher(
+                new ValidatorStore(mContext.getContentResolver()), mPartialStore);
+
+        ForecastFetcher.Download download = fetcher.open(url, true);
+        try {
+            readBody(download);
+            fail("Error: A body that was cut off was read to the end");
+        } catch (IOException expected) {
+            // The connection dropped
+        }
+        download.close();
+        assertNotNull("Error: Nothing was kept of the cut off body", mPartialStore.get(url));
+
+        download = fetcher.open(url, true);
+        assertTrue("Error: The download started over", download.isResumed());
+        assertEquals(body, readBody(download));
+        assertTrue("Error: The kept bytes were downloaded again",
+                download.getCompressedBytes() < compressed.length);
+        download.commit();
+        download.close();
+
+        String range = mServer.getLastRequest().getHeader("Range");
+        assertNotNull("Error: No Range was asked for", range);
+        assertTrue(range.startsWith("bytes="));
+        assertNull("Error: The completed body was kept", mPartialStore.get(url));
+    }
+
+    /*
+        Without Accept-Ranges the server can't be asked for the rest, so nothing is kept.
+     */
+    public void testNoResumeWithoutAcceptRanges() throws IOException {
+        final byte[] compressed = gzip(createLongBody());
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return new FakeWeatherServer.Response(200)
+                        .setHeader("ETag", ETAG)
+                        .setHeader("Content-Encoding", "gzip")
+                        .setBody(compressed)
+                        .cutOffAfter(compressed.length / 2);
+            }
+        });
+        String url = mServer.getUrl(FORECAST_PATH);
+        ForecastFetcher fetcher = new ForecastFetcher(
+                new ValidatorStore(mContext.getContentResolver()), mPartialStore);
+
+        ForecastFetcher.Download download = fetcher.open(url, true);
+        try {
+            readBody(download);
+            fail("Error: A body that was cut off was read to the end");
+        } catch (IOException expected) {
+            // The connection dropped
+        }
+        download.close();
+        assertNull(mPartialStore.get(url));
+
+        download = fetcher.open(url, true);
+        assertFalse(download.isResumed());
+        download.close();
+        assertNull(mServer.getLastRequest().getHeader("Range"));
+    }
+
+    /*
+        Once a download is cancelled, the rest of its body must not be read.
+     */
+    public void testCancel() throws IOException {
+        mServer = new FakeWeatherServer(new FakeWeatherServer.Dispatcher() {
+            @Override
+            public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+                return FakeWeatherServer.Response.ok(createLongBody());
+            }
+        });
+
+        ForecastFetcher.Download download = mFetcher.open(mServer.getUrl(FORECAST_PATH), true);
+        assertTrue(download.getBody().read() != -1);
+        download.cancel();
+        try {
+            readBody(download);
+            fail("Error: The body was read after the download was cancelled");
+        } catch (SyncCancelledException expected) {
+            // Stopped at the next chunk
+        }
+        download.close();
+    }
+
+    /*
+        A body big enough to take several reads, and not to shrink to nothing when compressed.
+     */
+    private static String createLongBody() {
+        StringBuilder body = new StringBuilder("{\"cod\":\"200\",\"list\":[");
+        for (int i = 0; i < 400; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("{\"dt\":").append(1419033600L + i * 86400L)
+                    .append(",\"temp\":{\"min\":").append((i * 7919) % 311 / 10.0)
+                    .append(",\"max\":").append((i * 104729) % 397 / 10.0).append("}}");
+        }
+        return body.append("]}").toString();
+    }
+
+    static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+        gzipOut.write(body.getBytes("UTF-8"));
+        gzipOut.close();
+        return out.toByteArray();
+    }
+
+    static byte[] deflate(String body, boolean zlibWrapped) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, !zlibWrapped);
+        DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater);
+        deflaterOut.write(body.getBytes("UTF-8"));
+        deflaterOut.close();
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    static String readBody(ForecastFetcher.Download download) throws IOException {
+        InputStream body = download.getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int count;
+        while ((count = body.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toString("UTF-8");
+    }
+}
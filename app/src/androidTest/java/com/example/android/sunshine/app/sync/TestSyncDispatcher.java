@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that SyncDispatcher runs its consumers side by side, and that neither one that
+    throws nor one that hangs keeps the others from getting the forecast.
+ */
+public class TestSyncDispatcher extends AndroidTestCase {
+
+    private static final long TIMEOUT = 500;
+
+    private static ForecastResult createForecast() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        List<ForecastResult.Day> days = new ArrayList<ForecastResult.Day>();
+        days.add(new ForecastResult.Day(today, 800, "Clear", 21.5, 12.0));
+        days.add(new ForecastResult.Day(today + DateUtils.DAY_IN_MILLIS, 500, "Rain", 18.0, 10.5));
+        return new ForecastResult("99705", days);
+    }
+
+    private static SyncDispatcher.Consumer createConsumer(final String name,
+                                                          final Runnable action) {
+        return new SyncDispatcher.Consumer() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public void onForecast(ForecastResult forecast) {
+                action.run();
+            }
+        };
+    }
+
+    public void testConsumersRunConcurrently() {
+        // Neither consumer can finish before the other one started
+        final CountDownLatch started = new CountDownLatch(2);
+        Runnable waitForOther = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    assertTrue(started.await(TIMEOUT, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        int succeeded = new SyncDispatcher(2 * TIMEOUT)
+                .register(createConsumer("first", waitForOther))
+                .register(createConsumer("second", waitForOther))
+                .dispatch(createForecast());
+        assertEquals("Error: The consumers ran one after the other", 2, succeeded);
+    }
+
+    public void testFailuresAreIsolated() {
+        final AtomicInteger delivered = new AtomicInteger();
+        Runnable deliver = new Runnable() {
+            @Override
+            public void run() {
+                delivered.incrementAndGet();
+            }
+        };
+        Runnable fail = new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("broken consumer");
+            }
+        };
+        Runnable hang = new Runnable() {
+            @Override
+            public void run() {
+                SystemClock.sleep(20 * TIMEOUT);
+            }
+        };
+
+        long start = SystemClock.elapsedRealtime();
+        int succeeded = new SyncDispatcher(TIMEOUT)
+                .register(createConsumer("failing", fail))
+                .register(createConsumer("hanging", hang))
+                .register(createConsumer("working", deliver))
+                .dispatch(createForecast());
+        long duration = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(1, succeeded);
+        assertEquals("Error: A broken consumer kept another from the forecast",
+                1, delivered.get());
+        assertTrue("Error: The dispatch waited " + duration + " ms for a hanging consumer",
+                duration < 10 * TIMEOUT);
+    }
+
+    public void testThreadsAreReused() {
+        final List<Thread> threads = new ArrayList<Thread>();
+        Runnable record = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (threads) {
+                    threads.add(Thread.currentThread());
+                }
+            }
+        };
+        SyncDispatcher dispatcher = new SyncDispatcher(TIMEOUT)
+                .register(createConsumer("recording", record));
+        assertEquals(1, dispatcher.dispatch(createForecast()));
+        // Gives the thread time to go back to the pool after handing over the result
+        SystemClock.sleep(TIMEOUT / 5);
+        assertEquals(1, dispatcher.dispatch(createForecast()));
+        assertSame("Error: Every dispatch started a thread of its own",
+                threads.get(0), threads.get(1));
+    }
+
+    /*
+        The result has to survive the trip through an intent's extras.
+     */
+    public void testBundleRoundTrip() {
+        ForecastResult forecast = createForecast();
+        Bundle bundle = forecast.toBundle();
+        ForecastResult copy = ForecastResult.fromBundle(bundle);
+        assertNotNull(copy);
+        assertEquals(forecast.locationSetting, copy.locationSetting);
+        assertEquals(forecast.days.size(), copy.days.size());
+        for (int i = 0; i < forecast.days.size(); i++) {
+            ForecastResult.Day day = forecast.days.get(i);
+            ForecastResult.Day copyDay = copy.days.get(i);
+            assertEquals(day.date, copyDay.date);
+            assertEquals(day.weatherId, copyDay.weatherId);
+            assertEquals(day.shortDesc, copyDay.shortDesc);
+            assertEquals(day.high, copyDay.high);
+            assertEquals(day.low, copyDay.low);
+        }
+
+        assertNull("Error: Extras without a forecast were read as one",
+                ForecastResult.fromBundle(new Bundle()));
+    }
+}
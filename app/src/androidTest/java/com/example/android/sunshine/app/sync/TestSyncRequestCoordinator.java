@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that SyncRequestCoordinator folds bursts of requests, and periodic syncs meeting a
+    manual one, into one sync and drops syncs that would fetch what was fetched moments ago.
+    The sync manager is never involved: the coordinator under test only counts the requests it
+    would have made.
+ */
+public class TestSyncRequestCoordinator extends AndroidTestCase {
+
+    private static final String INPUTS = SyncRequestCoordinator.describeInputs(Arrays.asList(
+            new SyncEngine.Target("94043")));
+    private static final String OTHER_INPUTS = SyncRequestCoordinator.describeInputs(Arrays.asList(
+            new SyncEngine.Target("94043", "37.4", "-122.1")));
+
+    private HandlerThread mThread;
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private long mNow = 1000000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThread = new HandlerThread("TestSyncRequestCoordinator");
+        mThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mThread.quit();
+        super.tearDown();
+    }
+
+    private SyncRequestCoordinator createCoordinator() {
+        return new SyncRequestCoordinator(mContext, mThread.getLooper()) {
+            @Override
+            long elapsedRealtime() {
+                return mNow;
+            }
+
+            @Override
+            void performRequest() {
+                mRequests.incrementAndGet();
+            }
+        };
+    }
+
+    public void testBurstIsCoalesced() throws InterruptedException {
+        SyncRequestCoordinator coordinator = createCoordinator();
+        int coalesced = coordinator.getCoalescedCount();
+
+        for (int i = 0; i < 5; i++) {
+            coordinator.requestSync();
+        }
+        new PollingCheck(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS * 4) {
+            @Override
+            protected boolean check() {
+                return mRequests.get() > 0;
+            }
+        }.run();
+        Thread.sleep(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS);
+
+        assertEquals("Error: A burst of requests started more than one sync", 1, mRequests.get());
+        assertEquals(coalesced + 4, coordinator.getCoalescedCount());
+    }
+
+    public void testRecentSyncIsDropped() {
+        SyncRequestCoordinator coordinator = createCoordinator();
+        int dropped = coordinator.getDroppedCount();
+
+        assertTrue(coordinator.onSyncStarting(INPUTS, true));
+        coordinator.onSyncFinished(INPUTS, true, true);
+
+        // A periodic sync queued behind the manual one is dropped
+        mNow += SyncRequestCoordinator.MANUAL_FRESH_MILLIS;
+        assertFalse(coordinator.onSyncStarting(INPUTS, false));
+        // but a manual one is only dropped for a few seconds
+        assertTrue(coordinator.onSyncStarting(INPUTS, true));
+        coordinator.onSyncFinished(INPUTS, true, true);
+
+        // Different coordinates make a different sync
+        assertTrue(coordinator.onSyncStarting(OTHER_INPUTS, false));
+        coordinator.onSyncFinished(OTHER_INPUTS, false, true);
+
+        mNow += SyncRequestCoordinator.PERIODIC_FRESH_MILLIS;
+        assertTrue(coordinator.onSyncStarting(OTHER_INPUTS, false));
+        coordinator.onSyncFinished(OTHER_INPUTS, false, true);
+
+        assertEquals(dropped + 1, coordinator.getDroppedCount());
+    }
+
+    public void testPeriodicSyncIsFoldedIntoManual() {
+        SyncRequestCoordinator coordinator = createCoordinator();
+        int coalesced = coordinator.getCoalescedCount();
+
+        // While a manual sync runs
+        assertTrue(coordinator.onSyncStarting(INPUTS, true));
+        assertFalse("Error: A periodic sync ran alongside a manual one",
+                coordinator.onSyncStarting(OTHER_INPUTS, false));
+        coordinator.onSyncFinished(INPUTS, true, false);
+
+        // While a manual sync is asked for and hasn't started yet
+        coordinator.requestSync();
+        assertFalse("Error: A periodic sync ran ahead of a pending manual one",
+                coordinator.onSyncStarting(INPUTS, false));
+        new PollingCheck(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS * 4) {
+            @Override
+            protected boolean check() {
+                return mRequests.get() > 0;
+            }
+        }.run();
+        assertFalse(coordinator.onSyncStarting(INPUTS, false));
+        assertEquals(coalesced + 3, coordinator.getCoalescedCount());
+
+        // The manual sync never came, so periodic syncs go on
+        mNow += SyncRequestCoordinator.MANUAL_START_MILLIS;
+        assertTrue("Error: A lost manual sync held periodic syncs back",
+                coordinator.onSyncStarting(INPUTS, false));
+    }
+
+    public void testFailedSyncIsNotDropped() {
+        SyncRequestCoordinator coordinator = createCoordinator();
+
+        assertTrue(coordinator.onSyncStarting(INPUTS, true));
+        coordinator.onSyncFinished(INPUTS, true, false);
+        assertTrue("Error: A retry after a failed sync was dropped",
+                coordinator.onSyncStarting(INPUTS, false));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks how SyncScheduler weighs its inputs.  Every case starts from a daytime sync that
+    changed a few days with someone watching, which keeps the default interval.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static SyncScheduler.Inputs createDaytimeInputs() {
+        SyncScheduler.Inputs inputs = new SyncScheduler.Inputs();
+        inputs.changeRatio = 0.25;
+        inputs.hourOfDay = 14;
+        inputs.consumersActive = true;
+        return inputs;
+    }
+
+    public void testDefaultInterval() {
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL,
+                SyncScheduler.pickInterval(createDaytimeInputs()));
+    }
+
+    public void testChangingForecastSyncsMoreOften() {
+        SyncScheduler.Inputs inputs = createDaytimeInputs();
+        inputs.changeRatio = 1.0;
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL / 2, SyncScheduler.pickInterval(inputs));
+    }
+
+    public void testStableForecastSyncsLessOften() {
+        SyncScheduler.Inputs inputs = createDaytimeInputs();
+        inputs.changeRatio = 0;
+        inputs.stableSyncs = 1;
+        int once = SyncScheduler.pickInterval(inputs);
+        inputs.stableSyncs = 10;
+        int often = SyncScheduler.pickInterval(inputs);
+
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 2, once);
+        assertTrue("Error: A forecast that stays the same should stretch the interval further",
+                often > once);
+        assertTrue(often <= SyncScheduler.MAX_INTERVAL);
+    }
+
+    public void testFailuresBackOff() {
+        SyncScheduler.Inputs inputs = createDaytimeInputs();
+        inputs.failedSyncs = 1;
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 2, SyncScheduler.pickInterval(inputs));
+        inputs.failedSyncs = 100;
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.pickInterval(inputs));
+    }
+
+    public void testNightAndNoConsumersStretchTheInterval() {
+        SyncScheduler.Inputs inputs = createDaytimeInputs();
+        inputs.hourOfDay = SyncScheduler.NIGHT_START_HOUR;
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 2, SyncScheduler.pickInterval(inputs));
+
+        inputs = createDaytimeInputs();
+        inputs.consumersActive = false;
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 3 / 2, SyncScheduler.pickInterval(inputs));
+    }
+
+    public void testIntervalIsClamped() {
+        SyncScheduler.Inputs inputs = createDaytimeInputs();
+        inputs.changeRatio = 1.0;
+        inputs.hourOfDay = SyncScheduler.NIGHT_END_HOUR;
+        assertTrue(SyncScheduler.pickInterval(inputs) >= SyncScheduler.MIN_INTERVAL);
+
+        inputs = createDaytimeInputs();
+        inputs.failedSyncs = 3;
+        inputs.hourOfDay = SyncScheduler.NIGHT_START_HOUR;
+        inputs.consumersActive = false;
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.pickInterval(inputs));
+    }
+}
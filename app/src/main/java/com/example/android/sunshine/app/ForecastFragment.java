@@ -18,11 +18,12 @@ package com.example.android.sunshine.app;
 import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Dialog;
+import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentSender;
-import android.content.SharedPreferences;
 import android.content.res.TypedArray;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -30,7 +31,7 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.design.widget.AppBarLayout;
@@ -54,8 +55,11 @@ import android.view.ViewTreeObserver;
 import android.widget.AbsListView;
 import android.widget.TextView;
 
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.SavedLocations;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncScheduler;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
@@ -71,7 +75,6 @@ import java.io.ByteArrayOutputStream;
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
 public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>,
-        SharedPreferences.OnSharedPreferenceChangeListener,
         GoogleApiClient.ConnectionCallbacks {
 
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
@@ -89,6 +92,19 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private MainActivity mActivity;
     private GoogleApiClient mGoogleApiClient;
 
+    // Whether the preferred location is one of the saved locations, for the menu.  Read in the
+    // background whenever the preferred location may have changed.
+    private boolean mLocationSaved;
+
+    // Only the status of the preferred location matters to the empty view, so that is the
+    // one URI watched, rather than every change to the sync state
+    private final ContentObserver mLocationStatusObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            updateEmptyView();
+        }
+    };
+
     private static final int FORECAST_LOADER = 0;
     // For the forecast view we're showing only a small subset of the stored data.
     // Specify the columns we need.
@@ -147,15 +163,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        sp.registerOnSharedPreferenceChangeListener(this);
+        // The preferred location may have changed while we were paused
+        getActivity().getContentResolver().registerContentObserver(
+                Utility.getLocationStatusUri(Utility.getPreferredLocation(getActivity())),
+                false, mLocationStatusObserver);
+        loadLocationSaved();
         super.onResume();
     }
 
     @Override
     public void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(getActivity());
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        getActivity().getContentResolver().unregisterContentObserver(mLocationStatusObserver);
         super.onPause();
     }
 
@@ -164,6 +182,12 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         inflater.inflate(R.menu.forecastfragment, menu);
     }
 
+    @Override
+    public void onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_save_location).setChecked(mLocationSaved);
+        super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -178,6 +202,11 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
             openPreferredLocationInMap();
             return true;
         }
+        if (id == R.id.action_save_location) {
+            setLocationSaved(!item.isChecked());
+            item.setChecked(mLocationSaved);
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -290,6 +319,16 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if (mHoldForTransition) {
             mActivity.supportPostponeEnterTransition();
         }
+        if (getLoaderManager().getLoader(FORECAST_LOADER) == null) {
+            // Show the snapshot until the loader has the database's answer; it replaces it
+            // in onLoadFinished and keeps following the provider from then on
+            Cursor snapshot = ForecastSnapshot.query(getActivity(),
+                    Utility.getPreferredLocation(getActivity()), FORECAST_COLUMNS);
+            if (snapshot != null) {
+                mForecastAdapter.swapCursor(snapshot);
+                updateEmptyView();
+            }
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -297,6 +336,47 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
+        loadLocationSaved();
+    }
+
+    private void loadLocationSaved() {
+        final ContentResolver contentResolver = getActivity().getContentResolver();
+        final String locationSetting = Utility.getPreferredLocation(getActivity());
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                return SavedLocations.isSaved(contentResolver, locationSetting);
+            }
+
+            @Override
+            protected void onPostExecute(Boolean saved) {
+                mLocationSaved = saved;
+                if (isAdded()) {
+                    getActivity().supportInvalidateOptionsMenu();
+                }
+            }
+        }.execute();
+    }
+
+    /*
+        Saves or forgets the preferred location, so the sync keeps fetching it, or stops,
+        once another location is preferred.
+     */
+    private void setLocationSaved(final boolean saved) {
+        mLocationSaved = saved;
+        final ContentResolver contentResolver = getActivity().getContentResolver();
+        final String locationSetting = Utility.getPreferredLocation(getActivity());
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                if (saved) {
+                    SavedLocations.add(contentResolver, locationSetting);
+                } else {
+                    SavedLocations.remove(contentResolver, locationSetting);
+                }
+                return null;
+            }
+        }.execute();
     }
 
     private void openPreferredLocationInMap() {
@@ -429,45 +509,54 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     /*
         Updates the empty list view with contextually relevant information that the user can
-        use to determine why they aren't seeing weather.
+        use to determine why they aren't seeing weather.  The location status is read in the
+        background, and the message only shows once it is in.
      */
     private void updateEmptyView() {
-        if (mForecastAdapter.getItemCount() == 0) {
-            TextView tv = (TextView) getView().findViewById(R.id.recyclerview_forecast_empty);
-            if (null != tv) {
-                // if cursor is empty, why? do we have an invalid location
-                int message = R.string.empty_forecast_list;
-                @SunshineSyncAdapter.LocationStatus int location = Utility.getLocationStatus(getActivity());
-                switch (location) {
-                    case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
-                        message = R.string.empty_forecast_list_server_down;
-                        break;
-                    case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
-                        message = R.string.empty_forecast_list_server_error;
-                        break;
-                    case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
-                        message = R.string.empty_forecast_list_invalid_location;
-                        break;
-                    default:
-                        if (!Utility.isNetworkAvailable(getActivity())) {
-                            message = R.string.empty_forecast_list_no_network;
-                        }
-                }
-                tv.setText(message);
-            }
+        if (mForecastAdapter.getItemCount() != 0) {
+            return;
         }
+        Utility.loadLocationStatus(getActivity(), Utility.getPreferredLocation(getActivity()),
+                new Utility.LocationStatusCallback() {
+                    @Override
+                    public void onLocationStatus(@SunshineSyncAdapter.LocationStatus int status) {
+                        // The forecast may have come in, or the fragment gone, meanwhile
+                        if (isAdded() && getView() != null
+                                && mForecastAdapter.getItemCount() == 0) {
+                            showEmptyMessage(status);
+                        }
+                    }
+                });
     }
 
-    @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
-        if (key.equals(getString(R.string.pref_location_status_key))) {
-            updateEmptyView();
+    private void showEmptyMessage(@SunshineSyncAdapter.LocationStatus int location) {
+        TextView tv = (TextView) getView().findViewById(R.id.recyclerview_forecast_empty);
+        if (null != tv) {
+            // if cursor is empty, why? do we have an invalid location
+            int message = R.string.empty_forecast_list;
+            switch (location) {
+                case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                    message = R.string.empty_forecast_list_server_down;
+                    break;
+                case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
+                    message = R.string.empty_forecast_list_server_error;
+                    break;
+                case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
+                    message = R.string.empty_forecast_list_invalid_location;
+                    break;
+                default:
+                    if (!Utility.isNetworkAvailable(getActivity())) {
+                        message = R.string.empty_forecast_list_no_network;
+                    }
+            }
+            tv.setText(message);
         }
     }
 
     @Override
     public void onConnected(@Nullable Bundle bundle) {
         isGoogleApiConnected = true;
+        SyncScheduler.updateWatchConnected(getActivity().getApplicationContext(), mGoogleApiClient);
         syncWatchFace();
     }
 
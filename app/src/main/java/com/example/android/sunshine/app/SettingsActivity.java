@@ -18,8 +18,10 @@ package com.example.android.sunshine.app;
 import android.annotation.TargetApi;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
@@ -47,6 +49,17 @@ public class SettingsActivity extends PreferenceActivity
         implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
     protected final static int PLACE_PICKER_REQUEST = 9090;
     private ImageView mAttribution;
+    // The location the summary was last asked to show, so a late status can't overwrite it
+    private String mLocationSummaryValue;
+
+    // The status of the preferred location shows in the summary of the location preference
+    private final ContentObserver mLocationStatusObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            Preference locationPreference = findPreference(getString(R.string.pref_location_key));
+            bindPreferenceSummaryToValue(locationPreference);
+        }
+    };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -79,6 +92,7 @@ public class SettingsActivity extends PreferenceActivity
     protected void onResume() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.registerOnSharedPreferenceChangeListener(this);
+        observeLocationStatus();
         super.onResume();
     }
 
@@ -87,9 +101,18 @@ public class SettingsActivity extends PreferenceActivity
     protected void onPause() {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
         sp.unregisterOnSharedPreferenceChangeListener(this);
+        getContentResolver().unregisterContentObserver(mLocationStatusObserver);
         super.onPause();
     }
 
+    // Watches the status of the preferred location only, in place of the one watched so far
+    private void observeLocationStatus() {
+        getContentResolver().unregisterContentObserver(mLocationStatusObserver);
+        getContentResolver().registerContentObserver(
+                Utility.getLocationStatusUri(Utility.getPreferredLocation(this)),
+                false, mLocationStatusObserver);
+    }
+
     /**
      * Attaches a listener so the summary is always updated with the preference value.
      * Also fires the listener once, to initialize the summary (so it shows up before the value
@@ -119,22 +142,10 @@ public class SettingsActivity extends PreferenceActivity
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
             }
         } else if (key.equals(getString(R.string.pref_location_key))) {
-            @SunshineSyncAdapter.LocationStatus int status = Utility.getLocationStatus(this);
-            switch (status) {
-                case SunshineSyncAdapter.LOCATION_STATUS_OK:
-                    preference.setSummary(stringValue);
-                    break;
-                case SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN:
-                    preference.setSummary(getString(R.string.pref_location_unknown_description, value.toString()));
-                    break;
-                case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
-                    preference.setSummary(getString(R.string.pref_location_error_description, value.toString()));
-                    break;
-                default:
-                    // Note --- if the server is down we still assume the value
-                    // is valid
-                    preference.setSummary(stringValue);
-            }
+            // The plain value until the location's status, read in the background, is in
+            preference.setSummary(stringValue);
+            mLocationSummaryValue = stringValue;
+            loadLocationSummary(preference, stringValue);
         } else {
             // For other preferences, set the summary to the value's simple string representation.
             preference.setSummary(stringValue);
@@ -142,6 +153,33 @@ public class SettingsActivity extends PreferenceActivity
 
     }
 
+    private void loadLocationSummary(final Preference preference, final String value) {
+        Utility.loadLocationStatus(this, value, new Utility.LocationStatusCallback() {
+            @Override
+            public void onLocationStatus(@SunshineSyncAdapter.LocationStatus int status) {
+                // Another value may have been entered meanwhile
+                if (!value.equals(mLocationSummaryValue)) {
+                    return;
+                }
+                switch (status) {
+                    case SunshineSyncAdapter.LOCATION_STATUS_OK:
+                        preference.setSummary(value);
+                        break;
+                    case SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN:
+                        preference.setSummary(getString(R.string.pref_location_unknown_description, value));
+                        break;
+                    case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
+                        preference.setSummary(getString(R.string.pref_location_error_description, value));
+                        break;
+                    default:
+                        // Note --- if the server is down we still assume the value
+                        // is valid
+                        preference.setSummary(value);
+                }
+            }
+        });
+    }
+
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
@@ -159,28 +197,32 @@ public class SettingsActivity extends PreferenceActivity
             SharedPreferences.Editor editor = sharedPreferences.edit();
             editor.remove(getString(R.string.pref_location_latitude));
             editor.remove(getString(R.string.pref_location_longitude));
-            editor.commit();
+            editor.apply();
 
             // Remove attributions for our any PlacePicker locations.
             if (mAttribution != null) {
                 mAttribution.setVisibility(View.GONE);
             }
 
+            observeLocationStatus();
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
-        } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
-            // our location status has changed.  Update the summary accordingly
-            Preference locationPreference = findPreference(getString(R.string.pref_location_key));
-            bindPreferenceSummaryToValue(locationPreference);
+            notifyPreferredLocationChanged();
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyPreferredLocationChanged();
         }
     }
 
+    // Only the preferred location's forecast is on screen, so only its observers need to
+    // redraw; the whole location is notified since every day of it looks different now
+    private void notifyPreferredLocationChanged() {
+        getContentResolver().notifyChange(WeatherContract.WeatherEntry.buildWeatherLocation(
+                Utility.getPreferredLocation(this)), null);
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
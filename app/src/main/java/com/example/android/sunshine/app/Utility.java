@@ -15,13 +15,17 @@
  */
 package com.example.android.sunshine.app;
 
+import android.content.AsyncQueryHandler;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.Cursor;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.net.Uri;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
 
+import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
@@ -578,25 +582,57 @@ public class Utility {
     }
 
     /**
-     *
-     * @param c Context used to get the SharedPreferences
-     * @return the location status integer type
+     * Every location keeps its own status in the sync state, under its own URI.
+     * @param locationSetting the location setting the status belongs to
+     * @return the URI to observe for changes to the location's status
+     */
+    static public Uri getLocationStatusUri(String locationSetting) {
+        return WeatherContract.SyncStateEntry.buildSyncStateUri(
+                WeatherContract.SyncStateEntry.buildLocationStatusKey(locationSetting));
+    }
+
+    /**
+     * Receives a location status read in the background, on the thread that asked for it.
+     */
+    public interface LocationStatusCallback {
+        void onLocationStatus(@SunshineSyncAdapter.LocationStatus int status);
+    }
+
+    /**
+     * Reads the status of a location in the background, so this is safe to call from the UI
+     * thread, which must also be the one the callback is wanted on.
+     * @param c Context used to get the ContentResolver
+     * @param locationSetting the location setting to look up
+     * @param callback gets the location status integer type
      */
-    @SuppressWarnings("ResourceType")
-    static public @SunshineSyncAdapter.LocationStatus
-    int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    static public void loadLocationStatus(Context c, String locationSetting,
+                                          final LocationStatusCallback callback) {
+        new AsyncQueryHandler(c.getContentResolver()) {
+            @Override
+            @SuppressWarnings("ResourceType")
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                // A location without a stored status is unknown
+                int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+                if (cursor != null) {
+                    if (cursor.moveToFirst()) {
+                        status = (int) cursor.getLong(0);
+                    }
+                    cursor.close();
+                }
+                callback.onLocationStatus(status);
+            }
+        }.startQuery(0, null, getLocationStatusUri(locationSetting),
+                new String[] {WeatherContract.SyncStateEntry.COLUMN_VALUE}, null, null, null);
     }
 
     /**
-     * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
-     * @param c Context used to get the SharedPreferences
+     * Resets the status of the preferred location.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
+     * The write happens in the background, so this is safe to call from the UI thread.
+     * @param c Context used to get the ContentResolver
      */
     static public void resetLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
-        spe.apply();
+        // A location without a stored status is unknown
+        new AsyncQueryHandler(c.getContentResolver()) {}.startDelete(0, null,
+                getLocationStatusUri(getPreferredLocation(c)), null, null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+
+/**
+ * The days of one location's forecast, column by column in primitive arrays, for storing
+ * through {@link WeatherProvider#storeForecast(long, long, ForecastRows)}.
+ *
+ * A sync turns out thousands of days; keeping them here instead of in a ContentValues each
+ * saves boxing every number and hashing every column name, twice: once when the parser fills
+ * the row in and once when the provider binds it.  Every row carries every weather column
+ * except {@link WeatherContract.WeatherEntry#COLUMN_LOC_KEY}, which the provider is given
+ * separately.
+ */
+public class ForecastRows {
+    private int mSize;
+    private long[] mDates;
+    private long[] mWeatherIds;
+    private String[] mShortDescs;
+    private double[] mMinTemps;
+    private double[] mMaxTemps;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    public ForecastRows(int capacity) {
+        mDates = new long[capacity];
+        mWeatherIds = new long[capacity];
+        mShortDescs = new String[capacity];
+        mMinTemps = new double[capacity];
+        mMaxTemps = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Adds a day.
+     *
+     * @param date the day as a UTC millisecond value; normalized when stored
+     */
+    public void add(long date, long weatherId, String shortDesc, double minTemp, double maxTemp,
+                    double humidity, double pressure, double windSpeed, double degrees) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        mDates[mSize] = date;
+        mWeatherIds[mSize] = weatherId;
+        mShortDescs[mSize] = shortDesc;
+        mMinTemps[mSize] = minTemp;
+        mMaxTemps[mSize] = maxTemp;
+        mHumidities[mSize] = humidity;
+        mPressures[mSize] = pressure;
+        mWindSpeeds[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    /**
+     * Adds a day given as ContentValues, which must hold every column.
+     */
+    public void add(ContentValues values) {
+        add(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                values.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+    }
+
+    /**
+     * @return the day at the given position as ContentValues, for the paths that still take
+     * them
+     */
+    public ContentValues toContentValues(int i) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, mShortDescs[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mMinTemps[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mMaxTemps[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[i]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[i]);
+        return values;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int i) {
+        return mDates[i];
+    }
+
+    public long getWeatherId(int i) {
+        return mWeatherIds[i];
+    }
+
+    public String getShortDesc(int i) {
+        return mShortDescs[i];
+    }
+
+    public double getMinTemp(int i) {
+        return mMinTemps[i];
+    }
+
+    public double getMaxTemp(int i) {
+        return mMaxTemps[i];
+    }
+
+    public double getHumidity(int i) {
+        return mHumidities[i];
+    }
+
+    public double getPressure(int i) {
+        return mPressures[i];
+    }
+
+    public double getWindSpeed(int i) {
+        return mWindSpeeds[i];
+    }
+
+    public double getDegrees(int i) {
+        return mDegrees[i];
+    }
+
+    private void grow() {
+        int capacity = Math.max(mDates.length * 2, 16);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mShortDescs = Arrays.copyOf(mShortDescs, capacity);
+        mMinTemps = Arrays.copyOf(mMinTemps, capacity);
+        mMaxTemps = Arrays.copyOf(mMaxTemps, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * A compact binary copy of the preferred location's upcoming days, written after every sync
+ * that changes them.  Reading it only takes mapping a small file, so the forecast list, the
+ * widgets and Muzei can show the forecast on a cold start without waiting for the database.
+ *
+ * The file is a fixed size header followed by fixed size records, one per day, in date order:
+ * <pre>
+ *   header  magic, version, write time, record count, latitude, longitude,
+ *           location setting, city name
+ *   record  _id, date, weather id, min, max, humidity, pressure, wind, degrees, short desc
+ * </pre>
+ * Strings are UTF-8 in fixed size fields led by their length, and cut short if they don't
+ * fit.  Readers get the snapshot as a {@link Cursor} with the same column names as the
+ * provider's, so code written against the provider reads it unchanged.  Anything that doesn't
+ * add up, including a snapshot of another location or one that is too old, reads as missing
+ * and callers go to the provider instead.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "forecast.snapshot";
+
+    private static final int MAGIC = 0x534e5346;  // "SNSF"
+    // Bump whenever the layout changes; older snapshots are then ignored until rewritten
+    private static final int VERSION = 1;
+
+    // A snapshot that wasn't rewritten for this long may have missed changes
+    private static final long MAX_AGE = DateUtils.DAY_IN_MILLIS;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Header layout
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_WRITE_TIME = 8;
+    private static final int HEADER_COUNT = 16;
+    private static final int HEADER_COORD_LAT = 20;
+    private static final int HEADER_COORD_LONG = 28;
+    private static final int HEADER_LOCATION_SETTING = 36;
+    private static final int HEADER_CITY_NAME = 164;
+    private static final int HEADER_STRING_SIZE = 128;
+    private static final int HEADER_SIZE = 292;
+
+    // Record layout
+    private static final int RECORD_ID = 0;
+    private static final int RECORD_DATE = 8;
+    private static final int RECORD_WEATHER_ID = 16;
+    private static final int RECORD_MIN_TEMP = 20;
+    private static final int RECORD_MAX_TEMP = 28;
+    private static final int RECORD_HUMIDITY = 36;
+    private static final int RECORD_PRESSURE = 44;
+    private static final int RECORD_WIND_SPEED = 52;
+    private static final int RECORD_DEGREES = 60;
+    private static final int RECORD_SHORT_DESC = 68;
+    private static final int RECORD_STRING_SIZE = 32;
+    private static final int RECORD_SIZE = 100;
+
+    // The columns a snapshot can answer for; a projection asking for anything else is sent
+    // to the provider.  Day columns first, then the location's, which are the same every row.
+    private static final String[] COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // these indices must match COLUMNS
+    private static final int COL_ID = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_HUMIDITY = 5;
+    private static final int COL_PRESSURE = 6;
+    private static final int COL_WIND_SPEED = 7;
+    private static final int COL_DEGREES = 8;
+    private static final int COL_SHORT_DESC = 9;
+    private static final int COL_LOCATION_SETTING = 10;
+    private static final int COL_CITY_NAME = 11;
+    private static final int COL_COORD_LAT = 12;
+    private static final int COL_COORD_LONG = 13;
+
+    // The provider's name for every column of COLUMNS, as the writer asks for them
+    private static final String[] PROVIDER_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private ForecastSnapshot() {
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Rewrites the snapshot from the location's stored forecast, starting today.  Does disk
+     * and database work, so keep it off the main thread.
+     */
+    public static void update(Context context, String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri, PROVIDER_COLUMNS,
+                null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+
+        File file = getFile(context);
+        try {
+            if (!cursor.moveToFirst()) {
+                // Nothing to show, so nothing to show quickly either
+                file.delete();
+                return;
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + RECORD_SIZE * cursor.getCount());
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putLong(HEADER_WRITE_TIME, System.currentTimeMillis());
+            buffer.putInt(HEADER_COUNT, cursor.getCount());
+            buffer.putDouble(HEADER_COORD_LAT, cursor.getDouble(COL_COORD_LAT));
+            buffer.putDouble(HEADER_COORD_LONG, cursor.getDouble(COL_COORD_LONG));
+            putString(buffer, HEADER_LOCATION_SETTING, HEADER_STRING_SIZE,
+                    cursor.getString(COL_LOCATION_SETTING));
+            putString(buffer, HEADER_CITY_NAME, HEADER_STRING_SIZE,
+                    cursor.getString(COL_CITY_NAME));
+
+            int offset = HEADER_SIZE;
+            do {
+                buffer.putLong(offset + RECORD_ID, cursor.getLong(COL_ID));
+                buffer.putLong(offset + RECORD_DATE, cursor.getLong(COL_DATE));
+                buffer.putInt(offset + RECORD_WEATHER_ID, cursor.getInt(COL_WEATHER_ID));
+                buffer.putDouble(offset + RECORD_MIN_TEMP, cursor.getDouble(COL_MIN_TEMP));
+                buffer.putDouble(offset + RECORD_MAX_TEMP, cursor.getDouble(COL_MAX_TEMP));
+                buffer.putDouble(offset + RECORD_HUMIDITY, cursor.getDouble(COL_HUMIDITY));
+                buffer.putDouble(offset + RECORD_PRESSURE, cursor.getDouble(COL_PRESSURE));
+                buffer.putDouble(offset + RECORD_WIND_SPEED, cursor.getDouble(COL_WIND_SPEED));
+                buffer.putDouble(offset + RECORD_DEGREES, cursor.getDouble(COL_DEGREES));
+                putString(buffer, offset + RECORD_SHORT_DESC, RECORD_STRING_SIZE,
+                        cursor.getString(COL_SHORT_DESC));
+                offset += RECORD_SIZE;
+            } while (cursor.moveToNext());
+
+            write(file, buffer.array());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing " + file, e);
+            file.delete();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Writes next to the snapshot and renames over it, so readers see either the old file or
+        the complete new one.  A reader that mapped the old file keeps reading it.
+     */
+    private static void write(File file, byte[] bytes) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Can't rename " + tempFile);
+        }
+    }
+
+    /**
+     * @return true if there is a snapshot that {@link #query} would return for the location
+     */
+    public static boolean isCurrent(Context context, String locationSetting) {
+        return map(context, locationSetting) != null;
+    }
+
+    /**
+     * Reads the location's days from today on, as the provider would return them for
+     * {@link WeatherContract.WeatherEntry#buildWeatherLocationWithStartDate} sorted by date.
+     *
+     * @param projection the columns to return, named as for the provider
+     * @return the days, or null if there is no usable snapshot of the location or it can't
+     * provide one of the columns, in which case the provider has to be asked
+     */
+    public static Cursor query(Context context, String locationSetting, String[] projection) {
+        String[] columnNames = new String[projection.length];
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            // Qualified names such as weather._id are what the provider's joins need, but
+            // its cursors only name the column
+            int dot = projection[i].lastIndexOf('.');
+            columnNames[i] = dot == -1 ? projection[i] : projection[i].substring(dot + 1);
+            columns[i] = getColumn(columnNames[i]);
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+
+        ByteBuffer buffer = map(context, locationSetting);
+        if (buffer == null) {
+            return null;
+        }
+        return new SnapshotCursor(buffer, columnNames, columns,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+    }
+
+    /*
+        Maps the snapshot if it is well formed, of this location and recent enough.
+     */
+    private static ByteBuffer map(Context context, String locationSetting) {
+        File file = getFile(context);
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return null;
+        }
+
+        MappedByteBuffer buffer;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                // The mapping stays valid once the file is closed
+                FileChannel channel = in.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading " + file, e);
+            return null;
+        }
+
+        if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_VERSION) != VERSION) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - buffer.getLong(HEADER_WRITE_TIME);
+        if (age < 0 || age > MAX_AGE) {
+            return null;
+        }
+        int count = buffer.getInt(HEADER_COUNT);
+        if (count < 0 || buffer.capacity() < HEADER_SIZE + (long) RECORD_SIZE * count) {
+            return null;
+        }
+        if (!locationSetting.equals(
+                getString(buffer, HEADER_LOCATION_SETTING, HEADER_STRING_SIZE))) {
+            return null;
+        }
+        return buffer;
+    }
+
+    private static int getColumn(String name) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void putString(ByteBuffer buffer, int offset, int size, String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(UTF_8);
+        int length = Math.min(bytes.length, size - 2);
+        // Don't cut a character in half
+        while (length < bytes.length && length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        buffer.putShort(offset, (short) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + 2 + i, bytes[i]);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, int offset, int size) {
+        int length = Math.min(buffer.getShort(offset), size - 2);
+        byte[] bytes = new byte[Math.max(length, 0)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 2 + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /*
+        Reads straight out of the mapped snapshot; nothing is copied until a value is asked for.
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+        private final ByteBuffer mBuffer;
+        private final String[] mColumnNames;
+        private final int[] mColumns;
+        private final int mFirstRecord;
+        private final int mCount;
+
+        SnapshotCursor(ByteBuffer buffer, String[] columnNames, int[] columns, long startDate) {
+            mBuffer = buffer;
+            mColumnNames = columnNames;
+            mColumns = columns;
+
+            // Skip the days that went by since the snapshot was written
+            int records = buffer.getInt(HEADER_COUNT);
+            int first = 0;
+            while (first < records && buffer.getLong(
+                    HEADER_SIZE + first * RECORD_SIZE + RECORD_DATE) < startDate) {
+                first++;
+            }
+            mFirstRecord = first;
+            mCount = records - first;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mColumnNames;
+        }
+
+        private int getRecordOffset() {
+            checkPosition();
+            return HEADER_SIZE + (mFirstRecord + getPosition()) * RECORD_SIZE;
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (mColumns[column]) {
+                case COL_SHORT_DESC:
+                    return ForecastSnapshot.getString(mBuffer,
+                            getRecordOffset() + RECORD_SHORT_DESC, RECORD_STRING_SIZE);
+                case COL_LOCATION_SETTING:
+                    return ForecastSnapshot.getString(mBuffer,
+                            HEADER_LOCATION_SETTING, HEADER_STRING_SIZE);
+                case COL_CITY_NAME:
+                    return ForecastSnapshot.getString(mBuffer,
+                            HEADER_CITY_NAME, HEADER_STRING_SIZE);
+                case COL_ID:
+                case COL_DATE:
+                case COL_WEATHER_ID:
+                    return Long.toString(getLong(column));
+                default:
+                    return Double.toString(getDouble(column));
+            }
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            switch (mColumns[column]) {
+                case COL_ID:
+                    return mBuffer.getLong(getRecordOffset() + RECORD_ID);
+                case COL_DATE:
+                    return mBuffer.getLong(getRecordOffset() + RECORD_DATE);
+                case COL_WEATHER_ID:
+                    return mBuffer.getInt(getRecordOffset() + RECORD_WEATHER_ID);
+                case COL_SHORT_DESC:
+                case COL_LOCATION_SETTING:
+                case COL_CITY_NAME:
+                    return Long.parseLong(getString(column));
+                default:
+                    return (long) getDouble(column);
+            }
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            switch (mColumns[column]) {
+                case COL_MIN_TEMP:
+                    return mBuffer.getDouble(getRecordOffset() + RECORD_MIN_TEMP);
+                case COL_MAX_TEMP:
+                    return mBuffer.getDouble(getRecordOffset() + RECORD_MAX_TEMP);
+                case COL_HUMIDITY:
+                    return mBuffer.getDouble(getRecordOffset() + RECORD_HUMIDITY);
+                case COL_PRESSURE:
+                    return mBuffer.getDouble(getRecordOffset() + RECORD_PRESSURE);
+                case COL_WIND_SPEED:
+                    return mBuffer.getDouble(getRecordOffset() + RECORD_WIND_SPEED);
+                case COL_DEGREES:
+                    return mBuffer.getDouble(getRecordOffset() + RECORD_DEGREES);
+                case COL_COORD_LAT:
+                    return mBuffer.getDouble(HEADER_COORD_LAT);
+                case COL_COORD_LONG:
+                    return mBuffer.getDouble(HEADER_COORD_LONG);
+                case COL_SHORT_DESC:
+                case COL_LOCATION_SETTING:
+                case COL_CITY_NAME:
+                    return Double.parseDouble(getString(column));
+                default:
+                    return getLong(column);
+            }
+        }
+
+        @Override
+        public int getType(int column) {
+            switch (mColumns[column]) {
+                case COL_ID:
+                case COL_DATE:
+                case COL_WEATHER_ID:
+                    return FIELD_TYPE_INTEGER;
+                case COL_SHORT_DESC:
+                case COL_LOCATION_SETTING:
+                case COL_CITY_NAME:
+                    return FIELD_TYPE_STRING;
+                default:
+                    return FIELD_TYPE_FLOAT;
+            }
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            // Every column of the snapshot is NOT NULL in the database
+            return false;
+        }
+    }
+}
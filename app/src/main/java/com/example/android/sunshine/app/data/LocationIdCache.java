@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+
+/**
+ * Remembers the row ID, city, coordinates and city ID of the locations resolved in this
+ * process, so a sync that finds a location just as it was stored needs no database access to
+ * get its ID, nor to look up its city ID before the request.
+ *
+ * {@link WeatherProvider} fills the cache as it resolves locations and clears it whenever the
+ * location table changes any other way, so an entry is never older than the row it mirrors.
+ */
+public class LocationIdCache {
+
+    private static final HashMap<String, Entry> sEntries = new HashMap<String, Entry>();
+
+    private static class Entry {
+        final long id;
+        final long cityId;
+        final String cityName;
+        final double lat;
+        final double lon;
+
+        Entry(long id, long cityId, String cityName, double lat, double lon) {
+            this.id = id;
+            this.cityId = cityId;
+            this.cityName = cityName;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it isn't cached
+     */
+    public static synchronized long getId(String locationSetting) {
+        Entry entry = sEntries.get(locationSetting);
+        return entry != null ? entry.id : -1;
+    }
+
+    /**
+     * @return the server's ID for the city of the location, or 0 if it isn't cached or not
+     * known
+     */
+    public static synchronized long getCityId(String locationSetting) {
+        Entry entry = sEntries.get(locationSetting);
+        return entry != null ? entry.cityId : 0;
+    }
+
+    /**
+     * @return the row ID of the location if it is stored with exactly this city ID, city and
+     * these coordinates, or -1 if it isn't cached or would need an update.  A city ID of 0
+     * matches any, as the upsert keeps the stored one then.
+     */
+    public static synchronized long getId(String locationSetting, long cityId, String cityName,
+                                          double lat, double lon) {
+        Entry entry = sEntries.get(locationSetting);
+        if (entry == null || (cityId != 0 && entry.cityId != cityId)
+                || !entry.cityName.equals(cityName)
+                || entry.lat != lat || entry.lon != lon) {
+            return -1;
+        }
+        return entry.id;
+    }
+
+    static synchronized void put(String locationSetting, long id, long cityId, String cityName,
+                                 double lat, double lon) {
+        sEntries.put(locationSetting, new Entry(id, cityId, cityName, lat, lon));
+    }
+
+    static synchronized void invalidate() {
+        sEntries.clear();
+    }
+}
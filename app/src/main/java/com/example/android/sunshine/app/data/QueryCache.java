@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the results of the forecast queries {@link WeatherProvider} answers over and over:
+ * today's row for the widgets, notifications and Muzei, and the days from a start date for the
+ * list and the detail widget.
+ *
+ * A result is copied out of its database cursor once and kept as it is; every hit gets a
+ * cursor of its own over the same rows, which no caller can change.  Once a write that changed
+ * something has been committed, the provider drops the results it may have touched: those of
+ * the location it was about whose dates overlap the days it changed, or every result for a
+ * write that doesn't say.  A query that ran while such a write was going on may have read the
+ * old rows, so its result is only kept if nothing was dropped since the query started; see
+ * {@link #getGeneration()}.
+ */
+class QueryCache {
+    // Enough for every saved location's list and today's row, with room to spare
+    static final int MAX_ENTRIES = 32;
+    // A cached query reads one location's forecast from a day on, which is at most the
+    // SyncEngine.NUM_DAYS (14) days the sync stores, as every sync deletes the days before
+    // today.  Larger results come from tables the sync didn't write, e.g. in tests, and a month
+    // of rows is as much as such a result may pin.
+    static final int MAX_ROWS = 31;
+
+    private final LinkedHashMap<Key, Result> mEntries =
+            new LinkedHashMap<Key, Result>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @return a cursor over the cached result of the query, or null if it isn't cached
+     */
+    synchronized Cursor get(Key key) {
+        Result result = mEntries.get(key);
+        if (result == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return new ResultCursor(result);
+    }
+
+    /**
+     * @return the number of times results were dropped; take it before running a query whose
+     * result is to be passed to {@link #put}
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies the result of a query into the cache, unless it is too large or results were
+     * dropped since the query started.
+     *
+     * @param generation what {@link #getGeneration()} returned before the query ran
+     * @return a cursor over the copy, which replaces the one given, or the cursor given if
+     * the result is too large to keep
+     */
+    Cursor put(Key key, long generation, Cursor cursor) {
+        if (cursor.getCount() > MAX_ROWS) {
+            return cursor;
+        }
+        Result result = new Result(cursor);
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, result);
+            }
+        }
+        return new ResultCursor(result);
+    }
+
+    /**
+     * Drops the results of a location whose dates overlap the days a committed write changed.
+     *
+     * @param firstDate the first day changed, or 0 if unknown
+     * @param lastDate the last day changed, or Long.MAX_VALUE if unknown
+     */
+    synchronized void invalidate(String locationSetting, long firstDate, long lastDate) {
+        mGeneration++;
+        Iterator<Key> keys = mEntries.keySet().iterator();
+        while (keys.hasNext()) {
+            Key key = keys.next();
+            if (key.mLocationSetting.equals(locationSetting)
+                    && key.mFirstDate <= lastDate && firstDate <= key.mLastDate) {
+                keys.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every result, for a committed write that may have changed any of them.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * What a query is cached by: the kind of URI it matched, the URI itself, which carries the
+     * location and the dates, and the columns and order asked for.  The location and the days
+     * the query reads only tell which writes drop it; the URI already covers them.
+     */
+    static class Key {
+        private final int mMatch;
+        private final String mUri;
+        private final String[] mProjection;
+        private final String mSortOrder;
+        private final String mLocationSetting;
+        private final long mFirstDate;
+        private final long mLastDate;
+
+        /**
+         * @param firstDate the first day the query reads
+         * @param lastDate the last day the query reads, Long.MAX_VALUE if it reads on to the end
+         */
+        Key(int match, String uri, String[] projection, String sortOrder,
+            String locationSetting, long firstDate, long lastDate) {
+            mMatch = match;
+            mUri = uri;
+            mLocationSetting = locationSetting;
+            mFirstDate = firstDate;
+            mLastDate = lastDate;
+            mProjection = projection == null ? null : projection.clone();
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return mMatch == key.mMatch && mUri.equals(key.mUri)
+                    && Arrays.equals(mProjection, key.mProjection)
+                    && (mSortOrder == null ? key.mSortOrder == null
+                            : mSortOrder.equals(key.mSortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mMatch;
+            hash = 31 * hash + mUri.hashCode();
+            hash = 31 * hash + Arrays.hashCode(mProjection);
+            hash = 31 * hash + (mSortOrder == null ? 0 : mSortOrder.hashCode());
+            return hash;
+        }
+    }
+
+    /*
+        The rows of a query, each value kept as the type SQLite returned it.  Floating point
+        values keep the text SQLite made of them too, which has fewer digits than Java's.
+     */
+    private static class Result {
+        final String[] columnNames;
+        final Object[][] rows;
+
+        Result(Cursor cursor) {
+            columnNames = cursor.getColumnNames();
+            rows = new Object[cursor.getCount()][];
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columnNames.length];
+                for (int column = 0; column < row.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = new Real(cursor.getDouble(column),
+                                    cursor.getString(column));
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[column] = cursor.getString(column);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[column] = cursor.getBlob(column);
+                            break;
+                        default:
+                            row[column] = null;
+                            break;
+                    }
+                }
+                rows[i] = row;
+            }
+        }
+    }
+
+    private static class Real {
+        final double value;
+        final String text;
+
+        Real(double value, String text) {
+            this.value = value;
+            this.text = text;
+        }
+    }
+
+    /*
+        A read-only cursor over a cached result.  Values are converted between types the way
+        SQLite's own cursors convert them.
+     */
+    private static class ResultCursor extends AbstractCursor {
+        private final Result mResult;
+
+        ResultCursor(Result result) {
+            mResult = result;
+        }
+
+        private Object get(int column) {
+            return mResult.rows[getPosition()][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mResult.rows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mResult.columnNames;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Real) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof String) {
+                return FIELD_TYPE_STRING;
+            }
+            return FIELD_TYPE_BLOB;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            if (value instanceof Real) {
+                return ((Real) value).text;
+            }
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value instanceof Real) {
+                return (long) ((Real) value).value;
+            } else if (value instanceof Long) {
+                return (Long) value;
+            } else if (value instanceof String) {
+                try {
+                    return Long.parseLong((String) value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value instanceof Real) {
+                return ((Real) value).value;
+            } else if (value instanceof Long) {
+                return (Long) value;
+            } else if (value instanceof String) {
+                try {
+                    return Double.parseDouble((String) value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = get(column);
+            return value instanceof byte[] ? ((byte[]) value).clone() : null;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The list of locations the user keeps synced besides the preferred one.  Saved locations are
+ * rows of the location table with {@link WeatherContract.LocationEntry#COLUMN_SAVED} set, so
+ * they share their row, and their forecast, with the preferred location when both are the same.
+ *
+ * A location that no sync has stored yet has no city or coordinates to put in a row, so until
+ * one does it is kept as a pending key in the sync state; the sync stores it like any other
+ * location and then calls {@link #savePending} to move it over.
+ */
+public class SavedLocations {
+
+    private static final String sLocationSettingSelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    private static final String sSavedSelection =
+            WeatherContract.LocationEntry.COLUMN_SAVED + " = 1";
+
+    // key >= prefix AND key < the prefix with its last character bumped, i.e. the keys that
+    // start with KEY_PENDING_SAVED_LOCATION_PREFIX
+    private static final String sPendingSelection =
+            WeatherContract.SyncStateEntry.COLUMN_KEY + " >= ? AND " +
+                    WeatherContract.SyncStateEntry.COLUMN_KEY + " < ?";
+
+    private SavedLocations() {
+    }
+
+    /**
+     * @return the location settings of all saved locations, in the order they were added, the
+     * ones that no sync has stored yet last
+     */
+    public static List<String> getAll(ContentResolver contentResolver) {
+        List<String> locationSettings = new ArrayList<String>();
+        Cursor cursor = contentResolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                sSavedSelection, null, WeatherContract.LocationEntry._ID + " ASC");
+        if (cursor == null) {
+            return locationSettings;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String pending : getPending(contentResolver)) {
+            if (!locationSettings.contains(pending)) {
+                locationSettings.add(pending);
+            }
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Saves the location.  A location that isn't stored yet is left for the next sync, which
+     * stores it with the city and coordinates the server reports.  Blocks, so don't call this
+     * from the UI thread.
+     */
+    public static void add(ContentResolver contentResolver, String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_SAVED, 1);
+        int updated = contentResolver.update(WeatherContract.LocationEntry.CONTENT_URI, values,
+                sLocationSettingSelection, new String[] {locationSetting});
+        if (updated == 0) {
+            SyncState.putLong(contentResolver,
+                    WeatherContract.SyncStateEntry.buildPendingSavedLocationKey(locationSetting),
+                    System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Stops syncing the location.  The row itself stays, since its forecast still points at it;
+     * the forecast simply ages out of the database.  Blocks, so don't call this from the UI
+     * thread.
+     */
+    public static void remove(ContentResolver contentResolver, String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_SAVED, 0);
+        contentResolver.update(WeatherContract.LocationEntry.CONTENT_URI, values,
+                sLocationSettingSelection, new String[] {locationSetting});
+        contentResolver.delete(WeatherContract.SyncStateEntry.buildSyncStateUri(
+                WeatherContract.SyncStateEntry.buildPendingSavedLocationKey(locationSetting)),
+                null, null);
+    }
+
+    /**
+     * @return whether the location is saved, stored or not
+     */
+    public static boolean isSaved(ContentResolver contentResolver, String locationSetting) {
+        Cursor cursor = contentResolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry._ID},
+                sLocationSettingSelection + " AND " + sSavedSelection,
+                new String[] {locationSetting}, null);
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    return true;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return getPending(contentResolver).contains(locationSetting);
+    }
+
+    /**
+     * Saves the pending locations that a sync has stored by now.  The sync calls this once it
+     * is done; the ones it couldn't fetch stay pending for the next.
+     */
+    public static void savePending(ContentResolver contentResolver) {
+        for (String locationSetting : getPending(contentResolver)) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_SAVED, 1);
+            int updated = contentResolver.update(WeatherContract.LocationEntry.CONTENT_URI,
+                    values, sLocationSettingSelection, new String[] {locationSetting});
+            if (updated != 0) {
+                contentResolver.delete(WeatherContract.SyncStateEntry.buildSyncStateUri(
+                        WeatherContract.SyncStateEntry.buildPendingSavedLocationKey(
+                                locationSetting)), null, null);
+            }
+        }
+    }
+
+    /*
+        The location settings of the pending locations, in the order they were saved.
+     */
+    private static List<String> getPending(ContentResolver contentResolver) {
+        List<String> locationSettings = new ArrayList<String>();
+        String prefix = WeatherContract.SyncStateEntry.KEY_PENDING_SAVED_LOCATION_PREFIX;
+        String prefixEnd = prefix.substring(0, prefix.length() - 1)
+                + (char) (prefix.charAt(prefix.length() - 1) + 1);
+        Cursor cursor = contentResolver.query(WeatherContract.SyncStateEntry.CONTENT_URI,
+                new String[] {WeatherContract.SyncStateEntry.COLUMN_KEY},
+                sPendingSelection, new String[] {prefix, prefixEnd},
+                WeatherContract.SyncStateEntry.COLUMN_VALUE + " ASC");
+        if (cursor == null) {
+            return locationSettings;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0).substring(prefix.length()));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationSettings;
+    }
+}
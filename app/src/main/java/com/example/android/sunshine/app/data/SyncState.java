@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.util.Map;
+
+/**
+ * The values the sync keeps between runs, such as the status of every location and when the
+ * last notification went up.  They live in the sync state table rather than in the shared
+ * preferences, so the sync can write all of them in one transaction instead of committing the
+ * whole preferences file for each, and every key is observed on its own URI, see
+ * {@link WeatherContract.SyncStateEntry#buildSyncStateUri}.
+ */
+public class SyncState {
+
+    private SyncState() {
+    }
+
+    /**
+     * @return the value stored for the key, or defaultValue if there is none
+     */
+    public static long getLong(ContentResolver contentResolver, String key, long defaultValue) {
+        Cursor cursor = contentResolver.query(
+                WeatherContract.SyncStateEntry.buildSyncStateUri(key),
+                new String[] {WeatherContract.SyncStateEntry.COLUMN_VALUE}, null, null, null);
+        if (cursor == null) {
+            return defaultValue;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : defaultValue;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores the value of a single key.  Blocks, so don't call this from the UI thread.
+     */
+    public static void putLong(ContentResolver contentResolver, String key, long value) {
+        contentResolver.insert(WeatherContract.SyncStateEntry.CONTENT_URI,
+                createValues(key, value));
+    }
+
+    /**
+     * Stores the values of several keys in one transaction.  Blocks, so don't call this from
+     * the UI thread.
+     */
+    public static void putAll(ContentResolver contentResolver, Map<String, Long> values) {
+        if (values.isEmpty()) {
+            return;
+        }
+        ContentValues[] rows = new ContentValues[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            rows[i++] = createValues(entry.getKey(), entry.getValue());
+        }
+        contentResolver.bulkInsert(WeatherContract.SyncStateEntry.CONTENT_URI, rows);
+    }
+
+    private static ContentValues createValues(String key, long value) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncStateEntry.COLUMN_KEY, key);
+        values.put(WeatherContract.SyncStateEntry.COLUMN_VALUE, value);
+        return values;
+    }
+}
@@ -19,6 +19,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.format.DateUtils;
 import android.text.format.Time;
 
 /**
@@ -43,6 +44,22 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_VALIDATOR = "validator";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY_WEATHER = "hourly_weather";
+    public static final String PATH_SYNC_STATE = "sync_state";
+    public static final String PATH_REPLACE_FORECAST = "replace_forecast";
+
+    // Provider call that checkpoints the database's write-ahead log, meant for the end of a
+    // sync.  It doesn't wait for readers; the result holds how many log frames are left.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+    public static final String EXTRA_FRAMES_LEFT = "frames_left";
+
+    // Provider call that reports how often the forecast queries were answered from the
+    // provider's cache of their results, and how often they went to the database
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+    public static final String EXTRA_HITS = "hits";
+    public static final String EXTRA_MISSES = "misses";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +98,21 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // OpenWeatherMap's ID of the city the location setting resolved to, or 0 until the
+        // server named one.  Once known, the location is requested by this ID, which saves the
+        // server from looking the location setting up again.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // Whether the user asked to keep this location synced, on top of the preferred one.
+        // Stored as an integer, 1 for saved and 0 otherwise.
+        public static final String COLUMN_SAVED = "saved";
+
+        // Inserting here adds the location, or, if its location setting is already stored,
+        // refreshes its city and coordinates in place.  The values must hold the location
+        // setting, the city name and both coordinates, and may hold the city ID; the returned
+        // URI carries the row ID either way.
+        public static final Uri UPSERT_URI = CONTENT_URI.buildUpon().appendPath("upsert").build();
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,10 +158,45 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Provider call that stores the forecast of one location in a single transaction and
+        // drops every day that has gone by.  The extras carry the rows, the location they
+        // belong to and the last expired date; the result holds how many days were inserted,
+        // updated, found unchanged and left alone, or deleted as expired.  Every row must
+        // carry every column but the location.  Callers in the provider's process can skip
+        // ContentValues with WeatherProvider.storeForecast(long, long, ForecastRows).
+        public static final String METHOD_STORE_FORECAST = "store_forecast";
+        public static final String EXTRA_VALUES = "values";
+        public static final String EXTRA_LOCATION_ID = "location_id";
+        public static final String EXTRA_EXPIRED_DATE = "expired_date";
+        public static final String EXTRA_INSERTED = "inserted";
+        public static final String EXTRA_UPDATED = "updated";
+        public static final String EXTRA_UNCHANGED = "unchanged";
+        public static final String EXTRA_DELETED = "deleted";
+
+        // Writes to the forecast of a location are notified on that location's URI rather
+        // than on CONTENT_URI: on buildWeatherLocationWithDate() when a single day changed,
+        // otherwise on buildWeatherLocation() with the first and last date changed in these
+        // query parameters.  Observers registered for descendants of a location are told about
+        // its changes only; getFirstChangedDateFromUri() and getLastChangedDateFromUri() read
+        // the dates back.
+        public static final String PARAM_CHANGED_FROM = "changed_from";
+        public static final String PARAM_CHANGED_TO = "changed_to";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /*
+            Bulk inserting into this URI replaces the forecast of one location in a single
+            transaction: the days are stored as by METHOD_STORE_FORECAST, and the location's
+            days before the first of them are dropped.  Observers of the location are told once.
+         */
+        public static Uri buildReplaceForecastUri(long locationId) {
+            return ContentUris.withAppendedId(
+                    BASE_CONTENT_URI.buildUpon().appendPath(PATH_REPLACE_FORECAST).build(),
+                    locationId);
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -149,6 +216,16 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherLocationChange(
+                String locationSetting, long firstDate, long lastDate) {
+            if (firstDate == lastDate) {
+                return buildWeatherLocationWithDate(locationSetting, firstDate);
+            }
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_CHANGED_FROM, Long.toString(firstDate))
+                    .appendQueryParameter(PARAM_CHANGED_TO, Long.toString(lastDate)).build();
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -164,5 +241,205 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /*
+            The first date a change notified on the URI touched, or 0 if the URI doesn't say,
+            in which case any day may have changed.
+         */
+        public static long getFirstChangedDateFromUri(Uri uri) {
+            if (uri.getPathSegments().size() > 2) {
+                return getDateFromUri(uri);
+            }
+            String dateString = uri.getQueryParameter(PARAM_CHANGED_FROM);
+            return dateString == null ? 0 : Long.parseLong(dateString);
+        }
+
+        /*
+            The last date a change notified on the URI touched, or Long.MAX_VALUE if the URI
+            doesn't say.
+         */
+        public static long getLastChangedDateFromUri(Uri uri) {
+            if (uri.getPathSegments().size() > 2) {
+                return getDateFromUri(uri);
+            }
+            String dateString = uri.getQueryParameter(PARAM_CHANGED_TO);
+            return dateString == null ? Long.MAX_VALUE : Long.parseLong(dateString);
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly weather table */
+    public static final class HourlyWeatherEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY_WEATHER).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY_WEATHER;
+
+        public static final String TABLE_NAME = "hourly_weather";
+
+        // How long an entry is kept once its time has gone by
+        public static final long RETENTION = 6 * DateUtils.HOUR_IN_MILLIS;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3 hour step the entry covers, in milliseconds since the epoch
+        public static final String COLUMN_TIME = "time";
+        // Weather id and short description, as for the daily forecast
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+        // Temperature at that time, stored as a float
+        public static final String COLUMN_TEMP = "temp";
+        // Same units as the matching columns of the weather table
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Provider call that stores the hourly forecast of one location in a single
+        // transaction, replacing entries for the same times, and drops every entry older than
+        // the expired time.  Takes the same values and location id extras as
+        // WeatherEntry.METHOD_STORE_FORECAST; the result holds how many entries were inserted
+        // and how many were deleted as expired.
+        public static final String METHOD_STORE_HOURLY_FORECAST = "store_hourly_forecast";
+        public static final String EXTRA_EXPIRED_TIME = "expired_time";
+
+        public static Uri buildHourlyWeatherLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /* Inner class that defines the table contents of the HTTP response validator table */
+    public static final class ValidatorEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_VALIDATOR).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_VALIDATOR;
+
+        public static final String TABLE_NAME = "validator";
+
+        // The full request URI the validators were returned for.  There is one row per URI.
+        public static final String COLUMN_REQUEST_URI = "request_uri";
+
+        // Validators as sent by the server, replayed as If-None-Match and If-Modified-Since.
+        // Either may be null when the server didn't send it.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // Hex encoded SHA-1 of the last response body, for servers that send no validators
+        public static final String COLUMN_BODY_HASH = "body_hash";
+
+        // When the response was last fetched or revalidated, in milliseconds since the epoch
+        public static final String COLUMN_FETCH_TIME = "fetch_time";
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        // Number of syncs kept.  Inserting the metrics of a newer sync drops the oldest one.
+        public static final int HISTORY_SIZE = 20;
+
+        // When the sync started, in milliseconds since the epoch.  Shared by all the rows of
+        // one sync.
+        public static final String COLUMN_SYNC_ID = "sync_id";
+
+        // The location the phase worked on, or null for phases that cover the whole sync
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        // One of the PHASE_ values below
+        public static final String COLUMN_PHASE = "phase";
+
+        // How long the phase took, in nanoseconds of the monotonic clock
+        public static final String COLUMN_DURATION = "duration";
+
+        // Bytes read off the network and rows written during the phase, 0 when it has none
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ROWS = "rows";
+
+        // Opening the connection to the server
+        public static final String PHASE_CONNECT = "connect";
+        // From the request being sent to the response headers being in
+        public static final String PHASE_FIRST_BYTE = "first_byte";
+        // Reading and parsing the body, which happen together as the body streams in
+        public static final String PHASE_PARSE = "parse";
+        public static final String PHASE_ADD_LOCATION = "add_location";
+        // Writing the forecast and deleting expired days, in one transaction
+        public static final String PHASE_STORE = "store";
+        // Downloading, parsing and storing the hourly forecast of a location
+        public static final String PHASE_HOURLY = "hourly";
+        public static final String PHASE_NOTIFY = "notify";
+        // A location from start to finish, or the whole sync when there is no location
+        public static final String PHASE_TOTAL = "total";
+    }
+
+    /* Inner class that defines the table contents of the sync state table */
+    public static final class SyncStateEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_STATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATE;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_STATE;
+
+        public static final String TABLE_NAME = "sync_state";
+
+        // What the value is about, e.g. KEY_LAST_NOTIFICATION.  There is one row per key, and
+        // each key has its own URI, so observers only hear about the key they watch.
+        public static final String COLUMN_KEY = "key";
+        public static final String COLUMN_VALUE = "value";
+
+        // When the last weather notification went up, in milliseconds since the epoch
+        public static final String KEY_LAST_NOTIFICATION = "last_notification";
+
+        // 1 once the user dismissed the last weather notification, 0 while it may be showing
+        public static final String KEY_NOTIFICATION_DISMISSED = "notification_dismissed";
+
+        // Prefix of the keys holding the LocationStatus of every location
+        private static final String KEY_LOCATION_STATUS_PREFIX = "location_status:";
+
+        public static String buildLocationStatusKey(String locationSetting) {
+            return KEY_LOCATION_STATUS_PREFIX + locationSetting;
+        }
+
+        // The state of the adaptive sync schedule, see SyncScheduler: the interval between
+        // syncs, in seconds, and how many syncs in a row changed nothing and failed
+        public static final String KEY_SYNC_INTERVAL = "sync_interval";
+        public static final String KEY_SYNC_STABLE_COUNT = "sync_stable_count";
+        public static final String KEY_SYNC_FAILURE_COUNT = "sync_failure_count";
+
+        // Prefix of the keys holding the state of the forecast server's CircuitBreaker
+        public static final String KEY_FORECAST_BREAKER_PREFIX = "forecast_breaker:";
+
+        // Prefix of the keys of the locations the user saved before any sync stored them; the
+        // value is when they were saved.  See SavedLocations.
+        public static final String KEY_PENDING_SAVED_LOCATION_PREFIX = "pending_saved_location:";
+
+        public static String buildPendingSavedLocationKey(String locationSetting) {
+            return KEY_PENDING_SAVED_LOCATION_PREFIX + locationSetting;
+        }
+
+        public static Uri buildSyncStateUri(String key) {
+            return CONTENT_URI.buildUpon().appendPath(key).build();
+        }
+
+        public static String getKeyFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
     }
 }
@@ -16,36 +16,113 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyWeatherEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStateEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ValidatorEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The database runs in write-ahead log mode, so a sync writing forecasts never blocks the
+ * forecast list, the widgets or Muzei reading them.  SQLiteDatabase then keeps writes on one
+ * primary connection and hands queries made outside a transaction to a pool of read-only
+ * connections, which read the last committed state while the write goes on.
+ *
+ * Checkpoints, which copy the log back into the database, are kept out of the way: the log
+ * may grow large enough to hold a whole sync before a commit triggers one, the sync asks for
+ * one itself once it is done (see {@link #checkpoint}), and the log file is cut back afterwards.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages the log may grow to before a commit checkpoints it; about 4 MB, more than a sync of
+    // every saved location writes
+    static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // What the log file is cut back to once a checkpoint has emptied it
+    static final long WAL_SIZE_LIMIT = 512 * 1024;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        boolean writeAheadLogging;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            writeAheadLogging = db.isWriteAheadLoggingEnabled();
+        } else {
+            // Fails for read-only databases, which then stay in rollback journal mode
+            writeAheadLogging = db.enableWriteAheadLogging();
+        }
+        if (writeAheadLogging) {
+            // Both settings belong to the connection that writes, which is this one
+            queryPragma(db, "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES);
+            queryPragma(db, "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT);
+        }
+    }
+
+    /**
+     * Copies as much of the log back into the database as readers allow, without waiting for
+     * them.  Call this after a burst of writes, such as a sync, rather than letting a commit in
+     * the middle of it pay for the checkpoint.
+     *
+     * @return the number of log frames left that still couldn't be copied, or -1 if the
+     * database isn't in write-ahead log mode
+     */
+    static int checkpoint(SQLiteDatabase db) {
+        // Returns whether it was blocked, the frames in the log and the frames checkpointed
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            if (!cursor.moveToFirst() || cursor.getInt(1) == -1) {
+                return -1;
+            }
+            return cursor.getInt(1) - cursor.getInt(2);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Pragmas that report their new value can't go through execSQL().
+     */
+    private static void queryPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, the latitude and longitude, the server's ID for the
+        // city, and whether the user saved it to be synced alongside the preferred location
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER NOT NULL DEFAULT 0, " +
+                LocationEntry.COLUMN_SAVED + " INTEGER NOT NULL DEFAULT 0 " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -79,8 +156,70 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
+        // Response validators live in the same database as the data they validate, so that
+        // wiping the weather table can never leave a validator claiming we're up to date.
+        final String SQL_CREATE_VALIDATOR_TABLE = "CREATE TABLE " + ValidatorEntry.TABLE_NAME + " (" +
+                ValidatorEntry._ID + " INTEGER PRIMARY KEY," +
+                ValidatorEntry.COLUMN_REQUEST_URI + " TEXT NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                ValidatorEntry.COLUMN_ETAG + " TEXT, " +
+                ValidatorEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                ValidatorEntry.COLUMN_BODY_HASH + " TEXT, " +
+                ValidatorEntry.COLUMN_FETCH_TIME + " INTEGER NOT NULL " +
+                " );";
+
+        // Timings of the last syncs, one row per phase and location
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncMetricsEntry.COLUMN_SYNC_ID + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                SyncMetricsEntry.COLUMN_PHASE + " TEXT NOT NULL, " +
+                SyncMetricsEntry.COLUMN_DURATION + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                SyncMetricsEntry.COLUMN_ROWS + " INTEGER NOT NULL DEFAULT 0 " +
+                " );";
+
+        // Forty 3 hour steps per location and sync.  The plain INTEGER PRIMARY KEY saves every
+        // insert a write to sqlite_sequence, and the time index keeps the retention sweep from
+        // scanning every location's entries.
+        final String SQL_CREATE_HOURLY_WEATHER_TABLE = "CREATE TABLE " + HourlyWeatherEntry.TABLE_NAME + " (" +
+                HourlyWeatherEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyWeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                HourlyWeatherEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyWeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                " FOREIGN KEY (" + HourlyWeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                // One entry per time and location; a newer forecast replaces the old entry
+                " UNIQUE (" + HourlyWeatherEntry.COLUMN_LOC_KEY + ", " +
+                HourlyWeatherEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_HOURLY_WEATHER_TIME_INDEX = "CREATE INDEX " +
+                HourlyWeatherEntry.TABLE_NAME + "_" + HourlyWeatherEntry.COLUMN_TIME + " ON " +
+                HourlyWeatherEntry.TABLE_NAME + " (" + HourlyWeatherEntry.COLUMN_TIME + ");";
+
+        // Small values the sync keeps between runs, such as the status of every location.
+        // Rewriting a key replaces its row.
+        final String SQL_CREATE_SYNC_STATE_TABLE = "CREATE TABLE " + SyncStateEntry.TABLE_NAME + " (" +
+                SyncStateEntry._ID + " INTEGER PRIMARY KEY," +
+                SyncStateEntry.COLUMN_KEY + " TEXT NOT NULL UNIQUE ON CONFLICT REPLACE, " +
+                SyncStateEntry.COLUMN_VALUE + " INTEGER NOT NULL " +
+                " );";
+
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_VALIDATOR_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_WEATHER_TIME_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_STATE_TABLE);
+
+        // Any location IDs remembered from the database this one replaces are meaningless now
+        LocationIdCache.invalidate();
     }
 
     @Override
@@ -93,6 +232,10 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         // should be your top priority before modifying this method.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ValidatorEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyWeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncStateEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -17,12 +17,26 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,12 +44,26 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    private final QueryCache mQueryCache = new QueryCache();
+
+    // The URIs changed by the batch that is being applied on the current thread, if any
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<Set<Uri>>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int REPLACE_FORECAST = 103;
     static final int LOCATION = 300;
+    static final int LOCATION_UPSERT = 301;
+    static final int VALIDATOR = 400;
+    static final int SYNC_METRICS = 500;
+    static final int HOURLY_WEATHER = 600;
+    static final int HOURLY_WEATHER_WITH_LOCATION = 601;
+    static final int SYNC_STATE = 700;
+    static final int SYNC_STATE_WITH_KEY = 701;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +77,16 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly_weather INNER JOIN location ON hourly_weather.location_id = location._id
+        sHourlyWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyWeatherByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyWeatherEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyWeatherEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,6 +106,108 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //sync_id NOT IN (the HISTORY_SIZE most recent sync ids)
+    private static final String sSyncMetricsExpiredSelection =
+            WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID + " NOT IN (SELECT DISTINCT " +
+                    WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID + " FROM " +
+                    WeatherContract.SyncMetricsEntry.TABLE_NAME + " ORDER BY " +
+                    WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID + " DESC LIMIT " +
+                    WeatherContract.SyncMetricsEntry.HISTORY_SIZE + ")";
+
+    //location_setting = ?, within the location table alone
+    private static final String sLocationTableSettingSelection =
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    private static final String[] sLocationUpsertProjection = {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_CITY_ID
+    };
+
+    //_id = ?, within the location table alone
+    private static final String sLocationIdSelection =
+            WeatherContract.LocationEntry._ID + " = ? ";
+
+    //location_id, MIN(date), MAX(date), grouped by location_id
+    private static final String[] sDayRangeProjection = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            "MIN(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")",
+            "MAX(" + WeatherContract.WeatherEntry.COLUMN_DATE + ")"
+    };
+
+    //key = ?
+    private static final String sSyncStateKeySelection =
+            WeatherContract.SyncStateEntry.COLUMN_KEY + " = ? ";
+
+    // The weather columns storeForecast() compares; the columns that follow the location and
+    // the date in sWeatherInsert, and the columns sWeatherUpdate sets, are in the same order
+    private static final String[] sStoredWeatherProjection = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int STORED_ID = 0;
+    private static final int STORED_DATE = 1;
+    private static final int STORED_WEATHER_ID = 2;
+    private static final int STORED_SHORT_DESC = 3;
+    private static final int STORED_MIN_TEMP = 4;
+    private static final int STORED_MAX_TEMP = 5;
+    private static final int STORED_HUMIDITY = 6;
+    private static final int STORED_PRESSURE = 7;
+    private static final int STORED_WIND_SPEED = 8;
+    private static final int STORED_DEGREES = 9;
+
+    //INSERT INTO weather (location_id, date, weather_id, ...) VALUES (?, ?, ?, ...)
+    private static final String sWeatherInsert =
+            "INSERT INTO " + WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    //UPDATE weather SET weather_id = ?, ... WHERE _id = ?
+    private static final String sWeatherUpdate =
+            "UPDATE " + WeatherContract.WeatherEntry.TABLE_NAME + " SET " +
+                    WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+                    WeatherContract.WeatherEntry.COLUMN_DEGREES + " = ? WHERE " +
+                    WeatherContract.WeatherEntry._ID + " = ?";
+
+    //INSERT INTO hourly_weather (location_id, time, ...) VALUES (?, ?, ...)
+    private static final String sHourlyWeatherInsert =
+            "INSERT INTO " + WeatherContract.HourlyWeatherEntry.TABLE_NAME + " (" +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_TIME + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_SHORT_DESC + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_TEMP + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED + ", " +
+                    WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES +
+                    ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +248,21 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    private Cursor getHourlyWeatherByLocationSetting(Uri uri, String[] projection,
+                                                     String selection, String[] selectionArgs,
+                                                     String sortOrder) {
+        String locationSetting = WeatherContract.HourlyWeatherEntry.getLocationSettingFromUri(uri);
+
+        return sHourlyWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                DatabaseUtils.concatenateWhere(sLocationSettingSelection, selection),
+                DatabaseUtils.appendSelectionArgs(new String[]{locationSetting}, selectionArgs),
+                null,
+                null,
+                sortOrder
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -128,8 +283,16 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
+        matcher.addURI(authority, WeatherContract.PATH_REPLACE_FORECAST + "/#", REPLACE_FORECAST);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/upsert", LOCATION_UPSERT);
+        matcher.addURI(authority, WeatherContract.PATH_VALIDATOR, VALIDATOR);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY_WEATHER, HOURLY_WEATHER);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY_WEATHER + "/*", HOURLY_WEATHER_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATE, SYNC_STATE);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_STATE + "/*", SYNC_STATE_WITH_KEY);
         return matcher;
     }
 
@@ -161,9 +324,23 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER_WITH_LOCATION:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
+            case REPLACE_FORECAST:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case LOCATION_UPSERT:
+                return WeatherContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case VALIDATOR:
+                return WeatherContract.ValidatorEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case HOURLY_WEATHER:
+            case HOURLY_WEATHER_WITH_LOCATION:
+                return WeatherContract.HourlyWeatherEntry.CONTENT_TYPE;
+            case SYNC_STATE:
+                return WeatherContract.SyncStateEntry.CONTENT_TYPE;
+            case SYNC_STATE_WITH_KEY:
+                return WeatherContract.SyncStateEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +349,34 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+
+        // The forecast of a location, from a start date or for a single day, is what everything
+        // asks for all the time, and the join behind it is worth skipping
+        QueryCache.Key cacheKey = null;
+        long cacheGeneration = 0;
+        if (match == WEATHER_WITH_LOCATION) {
+            cacheKey = new QueryCache.Key(match, uri.toString(), projection, sortOrder,
+                    WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                    WeatherContract.WeatherEntry.getStartDateFromUri(uri), Long.MAX_VALUE);
+        } else if (match == WEATHER_WITH_LOCATION_AND_DATE) {
+            long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
+            cacheKey = new QueryCache.Key(match, uri.toString(), projection, sortOrder,
+                    WeatherContract.WeatherEntry.getLocationSettingFromUri(uri), date, date);
+        }
+        if (cacheKey != null) {
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(), uri);
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -213,10 +414,84 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "validator"
+            case VALIDATOR: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ValidatorEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly_weather/*"
+            case HOURLY_WEATHER_WITH_LOCATION: {
+                retCursor = getHourlyWeatherByLocationSetting(uri, projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            }
+            // "hourly_weather"
+            case HOURLY_WEATHER: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_state/*"
+            case SYNC_STATE_WITH_KEY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncStateEntry.TABLE_NAME,
+                        projection,
+                        sSyncStateKeySelection,
+                        new String[]{WeatherContract.SyncStateEntry.getKeyFromUri(uri)},
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_state"
+            case SYNC_STATE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncStateEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        if (cacheKey != null) {
+            retCursor = mQueryCache.put(cacheKey, cacheGeneration, retCursor);
+        }
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
@@ -238,23 +513,118 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+                // Observers are told about the one day, on its location
+                ChangedDays changed = new ChangedDays();
+                changed.add(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                notifyDaysChanged(changed);
+                return returnUri;
             }
             case LOCATION: {
                 long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                LocationIdCache.invalidate();
                 if ( _id > 0 )
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case LOCATION_UPSERT: {
+                // Observers are only told if the location was added or changed
+                return upsertLocation(db, values);
+            }
+            case VALIDATOR: {
+                long _id = db.insert(WeatherContract.ValidatorEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
+            case SYNC_STATE: {
+                // Observers of the key are told by putSyncState, if the value changed at all
+                putSyncState(db, values);
+                return WeatherContract.SyncStateEntry.buildSyncStateUri(
+                        values.getAsString(WeatherContract.SyncStateEntry.COLUMN_KEY));
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /*
+        Adds the location, or refreshes the city, coordinates and city ID of the one stored for
+        the same location setting, in one transaction.  Without a city ID in the values, the
+        stored one is kept.  A location that is stored and unchanged, the
+        common case, costs the lookup and nothing else.  The outcome goes into the
+        LocationIdCache, so the next sync of the same location can skip even that.
+     */
+    private Uri upsertLocation(SQLiteDatabase db, ContentValues values) {
+        String locationSetting =
+                values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        String cityName = values.getAsString(WeatherContract.LocationEntry.COLUMN_CITY_NAME);
+        Double lat = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
+        Double lon = values.getAsDouble(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
+        if (locationSetting == null || cityName == null || lat == null || lon == null) {
+            throw new IllegalArgumentException("Incomplete location: " + values);
+        }
+        Long cityId = values.getAsLong(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+
+        long _id;
+        boolean changed = true;
+        db.beginTransaction();
+        try {
+            Cursor stored = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    sLocationUpsertProjection, sLocationTableSettingSelection,
+                    new String[]{locationSetting}, null, null, null);
+            try {
+                if (stored.moveToFirst()) {
+                    // the indices match sLocationUpsertProjection
+                    _id = stored.getLong(0);
+                    if (cityId == null) {
+                        cityId = stored.getLong(4);
+                    }
+                    changed = !cityName.equals(stored.getString(1))
+                            || lat != stored.getDouble(2) || lon != stored.getDouble(3)
+                            || cityId != stored.getLong(4);
+                    if (changed) {
+                        ContentValues changes = new ContentValues();
+                        changes.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+                        changes.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+                        changes.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+                        changes.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+                        db.update(WeatherContract.LocationEntry.TABLE_NAME, changes,
+                                WeatherContract.LocationEntry._ID + " = ?",
+                                new String[]{Long.toString(_id)});
+                    }
+                } else {
+                    if (cityId == null) {
+                        cityId = 0L;
+                    }
+                    _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if (_id == -1) {
+                        throw new android.database.SQLException(
+                                "Failed to insert location " + locationSetting);
+                    }
+                }
+            } finally {
+                stored.close();
+            }
+            db.setTransactionSuccessful();
+            // Still holding the write lock, so no other change to the table can slip in
+            // between the row and its cache entry
+            LocationIdCache.put(locationSetting, _id, cityId, cityName, lat, lon);
+        } finally {
+            db.endTransaction();
+        }
+        if (changed) {
+            notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        }
+        return WeatherContract.LocationEntry.buildLocationUri(_id);
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -263,24 +633,415 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+            case WEATHER: {
+                // Observers are told about the days deleted, on their locations
+                ChangedDays changed = new ChangedDays();
+                db.beginTransaction();
+                try {
+                    addSelectedDays(db, selection, selectionArgs, changed);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyDaysChanged(changed);
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                LocationIdCache.invalidate();
+                break;
+            case VALIDATOR:
+                rowsDeleted = db.delete(
+                        WeatherContract.ValidatorEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SYNC_METRICS:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY_WEATHER:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyWeatherEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SYNC_STATE:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncStateEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SYNC_STATE_WITH_KEY:
+                rowsDeleted = db.delete(WeatherContract.SyncStateEntry.TABLE_NAME,
+                        sSyncStateKeySelection,
+                        new String[]{WeatherContract.SyncStateEntry.getKeyFromUri(uri)});
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_STORE_FORECAST.equals(method)) {
+            return storeForecast(extras);
+        }
+        if (WeatherContract.HourlyWeatherEntry.METHOD_STORE_HOURLY_FORECAST.equals(method)) {
+            return storeHourlyForecast(extras);
+        }
+        if (WeatherContract.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(WeatherContract.EXTRA_HITS, mQueryCache.getHitCount());
+            result.putLong(WeatherContract.EXTRA_MISSES, mQueryCache.getMissCount());
+            return result;
+        }
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_FRAMES_LEFT,
+                    WeatherDbHelper.checkpoint(mOpenHelper.getWritableDatabase()));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        Stores the forecast of a single location and drops the days that have gone by, all in
+        one transaction, so readers never see a half written forecast and the sync of one
+        location costs one commit.  Every day must carry every column.
+     */
+    private Bundle storeForecast(Bundle extras) {
+        long locationId = extras.getLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID);
+        long expiredDate = extras.getLong(WeatherContract.WeatherEntry.EXTRA_EXPIRED_DATE);
+        Parcelable[] values = extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+
+        ForecastRows rows = new ForecastRows(values.length);
+        for (Parcelable parcelable : values) {
+            rows.add((ContentValues) parcelable);
+        }
+        return storeForecast(locationId, expiredDate, rows);
+    }
+
+    /**
+     * Stores the forecast of a single location and drops the days up to and including
+     * expiredDate, the same as {@link WeatherContract.WeatherEntry#METHOD_STORE_FORECAST}, but
+     * without going through ContentValues.  Only callable in the provider's own process, by
+     * way of {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     *
+     * Days are compared with what is stored for the same location and date: new days are
+     * inserted, changed days are updated in place and days that are the same are left alone,
+     * keeping their _ID.  Inserts and updates each go through one compiled statement that is
+     * bound column by column from the rows.  Observers are only told if something changed,
+     * and only on the locations and days that did.
+     *
+     * @return the same counts as the provider call
+     */
+    public Bundle storeForecast(long locationId, long expiredDate, ForecastRows rows) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangedDays changed = new ChangedDays();
+        DayCounts counts;
+        int deleted;
+        db.beginTransaction();
+        try {
+            counts = writeDays(db, locationId, rows, changed);
+            // delete old data so we don't build up an endless history
+            String expiredSelection = WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?";
+            String[] expiredArgs = new String[]{Long.toString(expiredDate)};
+            addSelectedDays(db, expiredSelection, expiredArgs, changed);
+            deleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME, expiredSelection,
+                    expiredArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyDaysChanged(changed);
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, counts.inserted);
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_UPDATED, counts.updated);
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED, counts.unchanged);
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_DELETED, deleted);
+        return result;
+    }
+
+    /*
+        Replaces the forecast of a single location with the days given, in one transaction:
+        the days are written as by storeForecast() and the location's days before the first of
+        them are dropped.  Unlike storeForecast(), the days of other locations are left alone.
+        Every day must carry every column but the location.
+     */
+    private int replaceForecast(long locationId, ContentValues[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        ForecastRows rows = new ForecastRows(values.length);
+        long firstDate = Long.MAX_VALUE;
+        for (ContentValues value : values) {
+            rows.add(value);
+            firstDate = Math.min(firstDate, WeatherContract.normalizeDate(
+                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)));
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangedDays changed = new ChangedDays();
+        DayCounts counts;
+        db.beginTransaction();
+        try {
+            counts = writeDays(db, locationId, rows, changed);
+            String staleSelection = WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " < ?";
+            String[] staleArgs =
+                    new String[]{Long.toString(locationId), Long.toString(firstDate)};
+            addSelectedDays(db, staleSelection, staleArgs, changed);
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME, staleSelection, staleArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyDaysChanged(changed);
+        return counts.inserted + counts.updated + counts.unchanged;
+    }
+
+    /*
+        Writes the days of a location within the caller's transaction.  Days are compared with
+        what is stored for the same location and date: new days are inserted, changed days are
+        updated in place and days that are the same are left alone.  The days inserted or
+        updated are added to changed.
+     */
+    private static DayCounts writeDays(SQLiteDatabase db, long locationId, ForecastRows rows,
+                                       ChangedDays changed) {
+        DayCounts counts = new DayCounts();
+        Cursor stored = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                sStoredWeatherProjection,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)}, null, null, null);
+        SQLiteStatement insert = null;
+        SQLiteStatement update = null;
+        try {
+            // Map every stored date to its position in the cursor
+            HashMap<Long, Integer> storedPositions =
+                    new HashMap<Long, Integer>(stored.getCount() * 2);
+            while (stored.moveToNext()) {
+                storedPositions.put(stored.getLong(STORED_DATE), stored.getPosition());
+            }
+
+            for (int i = 0; i < rows.size(); i++) {
+                long date = WeatherContract.normalizeDate(rows.getDate(i));
+                Integer position = storedPositions.get(date);
+                if (position == null) {
+                    if (insert == null) {
+                        insert = db.compileStatement(sWeatherInsert);
+                    }
+                    // the indices must match the columns of sWeatherInsert
+                    insert.bindLong(1, locationId);
+                    insert.bindLong(2, date);
+                    bindDay(insert, 3, rows, i);
+                    if (insert.executeInsert() != -1) {
+                        counts.inserted++;
+                        changed.add(locationId, date);
+                    }
+                    continue;
+                }
+
+                stored.moveToPosition(position);
+                if (isSameDay(stored, rows, i)) {
+                    counts.unchanged++;
+                } else {
+                    if (update == null) {
+                        update = db.compileStatement(sWeatherUpdate);
+                    }
+                    // the indices must match the columns of sWeatherUpdate
+                    bindDay(update, 1, rows, i);
+                    update.bindLong(9, stored.getLong(STORED_ID));
+                    if (update.executeUpdateDelete() != 0) {
+                        counts.updated++;
+                        changed.add(locationId, date);
+                    }
+                }
+            }
+        } finally {
+            stored.close();
+            if (insert != null) {
+                insert.close();
+            }
+            if (update != null) {
+                update.close();
+            }
+        }
+        return counts;
+    }
+
+    private static class DayCounts {
+        int inserted;
+        int updated;
+        int unchanged;
+    }
+
+    /*
+        The first and last date a write changed, for each location it touched.
+     */
+    private static class ChangedDays {
+        final HashMap<Long, long[]> ranges = new HashMap<Long, long[]>();
+
+        void add(long locationId, long date) {
+            long[] range = ranges.get(locationId);
+            if (range == null) {
+                ranges.put(locationId, new long[]{date, date});
+            } else {
+                range[0] = Math.min(range[0], date);
+                range[1] = Math.max(range[1], date);
+            }
+        }
+    }
+
+    /*
+        Adds the days of the weather table the selection matches to changed, by location.  Call
+        it in the same transaction as the delete or update that is about to change them.
+     */
+    private static void addSelectedDays(SQLiteDatabase db, String selection,
+                                        String[] selectionArgs, ChangedDays changed) {
+        Cursor days = db.query(WeatherContract.WeatherEntry.TABLE_NAME, sDayRangeProjection,
+                selection, selectionArgs, WeatherContract.WeatherEntry.COLUMN_LOC_KEY, null, null);
+        try {
+            // the indices match sDayRangeProjection
+            while (days.moveToNext()) {
+                changed.add(days.getLong(0), days.getLong(1));
+                changed.add(days.getLong(0), days.getLong(2));
+            }
+        } finally {
+            days.close();
+        }
+    }
+
+    /*
+        Tells the observers of each location a write changed about the days it changed, on
+        WeatherEntry.buildWeatherLocationChange().  Observers of other locations, and of other
+        days of the same location, aren't woken up.  A location that can't be found any more is
+        notified on CONTENT_URI.
+     */
+    private void notifyDaysChanged(ChangedDays changed) {
+        if (changed.ranges.isEmpty()) {
+            return;
+        }
+        final SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        for (Map.Entry<Long, long[]> entry : changed.ranges.entrySet()) {
+            String locationSetting = getLocationSetting(db, entry.getKey());
+            if (locationSetting == null) {
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            } else {
+                long[] range = entry.getValue();
+                notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationChange(
+                        locationSetting, range[0], range[1]));
+            }
+        }
+    }
+
+    private static String getLocationSetting(SQLiteDatabase db, long locationId) {
+        Cursor location = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                sLocationIdSelection, new String[]{Long.toString(locationId)}, null, null, null);
+        try {
+            return location.moveToFirst() ? location.getString(0) : null;
+        } finally {
+            location.close();
+        }
+    }
+
+    /*
+        Binds the columns of a day that follow its location and date, in the order of
+        sStoredWeatherProjection, starting at the given index.
+     */
+    private static void bindDay(SQLiteStatement statement, int index, ForecastRows rows, int i) {
+        statement.bindLong(index, rows.getWeatherId(i));
+        statement.bindString(index + 1, rows.getShortDesc(i));
+        statement.bindDouble(index + 2, rows.getMinTemp(i));
+        statement.bindDouble(index + 3, rows.getMaxTemp(i));
+        statement.bindDouble(index + 4, rows.getHumidity(i));
+        statement.bindDouble(index + 5, rows.getPressure(i));
+        statement.bindDouble(index + 6, rows.getWindSpeed(i));
+        statement.bindDouble(index + 7, rows.getDegrees(i));
+    }
+
+    /*
+        Compares the current row of a cursor over sStoredWeatherProjection with a day.  REAL
+        columns hold integers as floating point, so they are compared as doubles.
+     */
+    private static boolean isSameDay(Cursor stored, ForecastRows rows, int i) {
+        return stored.getLong(STORED_WEATHER_ID) == rows.getWeatherId(i)
+                && rows.getShortDesc(i).equals(stored.getString(STORED_SHORT_DESC))
+                && stored.getDouble(STORED_MIN_TEMP) == rows.getMinTemp(i)
+                && stored.getDouble(STORED_MAX_TEMP) == rows.getMaxTemp(i)
+                && stored.getDouble(STORED_HUMIDITY) == rows.getHumidity(i)
+                && stored.getDouble(STORED_PRESSURE) == rows.getPressure(i)
+                && stored.getDouble(STORED_WIND_SPEED) == rows.getWindSpeed(i)
+                && stored.getDouble(STORED_DEGREES) == rows.getDegrees(i);
+    }
+
+    /*
+        Stores the hourly forecast of a single location and drops the entries that expired, in
+        one transaction.  There are far more hourly entries than days, so rather than being
+        compared with what is stored, every entry goes through one compiled INSERT whose
+        conflict clause replaces the entry stored for the same time.  Every entry must carry
+        every column.
+     */
+    private Bundle storeHourlyForecast(Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        long locationId = extras.getLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID);
+        long expiredTime = extras.getLong(WeatherContract.HourlyWeatherEntry.EXTRA_EXPIRED_TIME);
+        Parcelable[] values = extras.getParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES);
+
+        int inserted = 0;
+        int deleted;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(sHourlyWeatherInsert);
+            try {
+                for (Parcelable parcelable : values) {
+                    ContentValues value = (ContentValues) parcelable;
+                    // the indices must match the columns of sHourlyWeatherInsert
+                    insert.bindLong(1, locationId);
+                    insert.bindLong(2, value.getAsLong(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_TIME));
+                    insert.bindString(3, value.getAsString(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_SHORT_DESC));
+                    insert.bindLong(4, value.getAsLong(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID));
+                    insert.bindDouble(5, value.getAsDouble(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_TEMP));
+                    insert.bindDouble(6, value.getAsDouble(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY));
+                    insert.bindDouble(7, value.getAsDouble(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE));
+                    insert.bindDouble(8, value.getAsDouble(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED));
+                    insert.bindDouble(9, value.getAsDouble(
+                            WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES));
+                    if (insert.executeInsert() != -1) {
+                        inserted++;
+                    }
+                }
+            } finally {
+                insert.close();
+            }
+            deleted = db.delete(WeatherContract.HourlyWeatherEntry.TABLE_NAME,
+                    WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " < ?",
+                    new String[]{Long.toString(expiredTime)});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (inserted != 0 || deleted != 0) {
+            notifyChange(WeatherContract.HourlyWeatherEntry.CONTENT_URI);
+        }
+
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_INSERTED, inserted);
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_DELETED, deleted);
+        return result;
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -297,20 +1058,44 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)) {
+                    // The rows move to days or locations only the update knows, so everything
+                    // is notified
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                }
+                // Observers are told about the days updated, on their locations
+                ChangedDays changed = new ChangedDays();
+                db.beginTransaction();
+                try {
+                    addSelectedDays(db, selection, selectionArgs, changed);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyDaysChanged(changed);
+                return rowsUpdated;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                LocationIdCache.invalidate();
+                break;
+            case VALIDATOR:
+                rowsUpdated = db.update(WeatherContract.ValidatorEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -323,25 +1108,183 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                ChangedDays changed = new ChangedDays();
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
                         long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
                         if (_id != -1) {
                             returnCount++;
+                            changed.add(
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyDaysChanged(changed);
                 return returnCount;
+            case REPLACE_FORECAST:
+                return replaceForecast(ContentUris.parseId(uri), values);
+            case SYNC_METRICS:
+                return insertSyncMetrics(db, uri, values);
+            case SYNC_STATE:
+                return insertSyncState(db, values);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Adds the metrics of a sync and trims the table down to the last HISTORY_SIZE syncs.
+     */
+    private int insertSyncMetrics(SQLiteDatabase db, Uri uri, ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, value);
+                if (_id != -1) {
+                    returnCount++;
+                }
+            }
+            db.delete(WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                    sSyncMetricsExpiredSelection, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        notifyChange(uri);
+        return returnCount;
+    }
+
+    /*
+        Writes every key of a sync in one transaction, so the sync pays for one commit however
+        many locations it went through.  Only the keys whose value changed are notified, each
+        on its own URI, once the transaction is over.
+     */
+    private int insertSyncState(SQLiteDatabase db, ContentValues[] values) {
+        ArrayList<String> changedKeys = new ArrayList<String>(values.length);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (writeSyncState(db, value)) {
+                    changedKeys.add(value.getAsString(WeatherContract.SyncStateEntry.COLUMN_KEY));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        for (String key : changedKeys) {
+            notifyChange(WeatherContract.SyncStateEntry.buildSyncStateUri(key));
+        }
+        return values.length;
+    }
+
+    private void putSyncState(SQLiteDatabase db, ContentValues value) {
+        if (writeSyncState(db, value)) {
+            notifyChange(WeatherContract.SyncStateEntry.buildSyncStateUri(
+                    value.getAsString(WeatherContract.SyncStateEntry.COLUMN_KEY)));
+        }
+    }
+
+    /*
+        Stores the value of one key, unless it is already stored.
+
+        @return true if the stored value changed
+     */
+    private static boolean writeSyncState(SQLiteDatabase db, ContentValues value) {
+        String key = value.getAsString(WeatherContract.SyncStateEntry.COLUMN_KEY);
+        Long newValue = value.getAsLong(WeatherContract.SyncStateEntry.COLUMN_VALUE);
+        if (key == null || newValue == null) {
+            throw new IllegalArgumentException("Sync state needs a key and a value: " + value);
+        }
+        Cursor stored = db.query(WeatherContract.SyncStateEntry.TABLE_NAME,
+                new String[]{WeatherContract.SyncStateEntry.COLUMN_VALUE},
+                sSyncStateKeySelection, new String[]{key}, null, null, null);
+        try {
+            if (stored.moveToFirst() && stored.getLong(0) == newValue) {
+                return false;
+            }
+        } finally {
+            stored.close();
+        }
+        // The unique key replaces the row stored for it
+        return db.insert(WeatherContract.SyncStateEntry.TABLE_NAME, null, value) != -1;
+    }
+
+    /*
+        Applies the whole batch in one transaction, so readers either see all of it or none of
+        it, and a failing operation rolls back the ones before it.  Observers are told once per
+        changed URI after the commit, rather than once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changes = new LinkedHashSet<Uri>();
+        ContentProviderResult[] results;
+        boolean successful = false;
+        mBatchChanges.set(changes);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+            if (!successful) {
+                // Locations upserted by the batch may have been cached with rolled back IDs
+                LocationIdCache.invalidate();
+            }
+        }
+        for (Uri uri : changes) {
+            publishChange(uri);
+        }
+        return results;
+    }
+
+    /*
+        Tells the observers of the URI about a change, or leaves it for applyBatch() to do once
+        the batch has been committed.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+        } else {
+            publishChange(uri);
+        }
+    }
+
+    /*
+        Drops the cached query results a committed change may have touched, then tells the
+        observers of the URI.  The cached queries join the weather and location tables, so
+        changes to any other table leave them alone.  A forecast change notified on a location,
+        see notifyDaysChanged(), only drops that location's results for the days it changed.
+     */
+    private void publishChange(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                mQueryCache.invalidate(WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        WeatherContract.WeatherEntry.getFirstChangedDateFromUri(uri),
+                        WeatherContract.WeatherEntry.getLastChangedDateFromUri(uri));
+                break;
+            case WEATHER:
+            case REPLACE_FORECAST:
+            case LOCATION:
+            case LOCATION_UPSERT:
+                mQueryCache.invalidateAll();
+                break;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
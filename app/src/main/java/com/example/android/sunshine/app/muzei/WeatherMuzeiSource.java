@@ -16,12 +16,13 @@
 package com.example.android.sunshine.app.muzei;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastResult;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
@@ -30,14 +31,6 @@ import com.google.android.apps.muzei.api.MuzeiArtSource;
  * Muzei source that changes your background based on the current weather conditions
  */
 public class WeatherMuzeiSource extends MuzeiArtSource {
-    private static final String[] FORECAST_COLUMNS = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_SHORT_DESC = 1;
-
     public WeatherMuzeiSource() {
         super("WeatherMuzeiSource");
     }
@@ -48,20 +41,47 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         boolean dataUpdated = intent != null &&
                 SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
         if (dataUpdated && isEnabled()) {
-            onUpdate(UPDATE_REASON_OTHER);
+            publishForecast(ForecastResult.fromBundle(intent.getExtras()));
         }
     }
 
+    @Override
+    protected void onEnabled() {
+        rememberEnabled(true);
+    }
+
+    @Override
+    protected void onDisabled() {
+        rememberEnabled(false);
+    }
+
+    /*
+        Remembers whether anyone shows our artwork, so the sync schedule can take it into account
+     */
+    private void rememberEnabled(boolean enabled) {
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putBoolean(getString(R.string.pref_muzei_enabled_key), enabled)
+                .apply();
+    }
+
     @Override
     protected void onUpdate(int reason) {
+        publishForecast(null);
+    }
+
+    /*
+        Publishes today's weather from the given forecast, which is read if it is null or of
+        another location.
+     */
+    private void publishForecast(ForecastResult forecast) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
+        if (forecast == null || !location.equals(forecast.locationSetting)) {
+            forecast = ForecastResult.query(this, location);
+        }
+        ForecastResult.Day today = forecast.getToday();
+        if (today != null) {
+            int weatherId = today.weatherId;
+            String desc = today.shortDesc;
 
             String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
             // Only publish a new wallpaper if we have a valid image
@@ -74,6 +94,5 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
                         .build());
             }
         }
-        cursor.close();
     }
 }
@@ -0,0 +1,180 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.SyncState;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Stops hammering a server that keeps failing.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and every request is
+ * refused locally until a backoff delay has passed.  The delay doubles with every time the
+ * breaker opens again, up to {@link #MAX_DELAY_MILLIS}, and is randomly shortened by up to
+ * half so that devices that failed together don't come back together.  Once the delay is over
+ * the breaker is half open: a single probe request is let through, and its outcome closes the
+ * breaker or opens it again.
+ *
+ * The state lives in the sync state table, so a breaker opened by one sync is still open when
+ * the next one starts, even in another process.  It isn't written on every change: the owner
+ * collects it with {@link #saveTo} and stores it along with whatever else it saves, in one
+ * transaction.  All methods may be called from several threads.
+ */
+public class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STATE_CLOSED, STATE_OPEN, STATE_HALF_OPEN})
+    public @interface State {}
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    // Failures in a row that open a closed breaker
+    static final int FAILURE_THRESHOLD = 3;
+
+    static final long BASE_DELAY_MILLIS = 30 * 1000;
+    static final long MAX_DELAY_MILLIS = 60 * 60 * 1000;
+
+    private static final String KEY_FAILURES = "failures";
+    private static final String KEY_OPENINGS = "openings";
+    private static final String KEY_RETRY_TIME = "retry_time";
+
+    private final String mKeyPrefix;
+    private final Random mRandom;
+
+    private int mFailures;
+    private int mOpenings;
+    private long mRetryTime;
+    private boolean mProbeInFlight;
+    // Whether the state changed since it was last handed to saveTo()
+    private boolean mChanged;
+
+    /**
+     * Reads the state the breaker was left in.  Blocks, so don't call this from the UI thread.
+     *
+     * @param keyPrefix prefix of the sync state keys, which tells breakers apart, e.g.
+     *                  SyncStateEntry.KEY_FORECAST_BREAKER_PREFIX
+     */
+    public CircuitBreaker(ContentResolver contentResolver, String keyPrefix) {
+        this(contentResolver, keyPrefix, new Random());
+    }
+
+    CircuitBreaker(ContentResolver contentResolver, String keyPrefix, Random random) {
+        mKeyPrefix = keyPrefix;
+        mRandom = random;
+        mFailures = (int) SyncState.getLong(contentResolver, keyPrefix + KEY_FAILURES, 0);
+        mOpenings = (int) SyncState.getLong(contentResolver, keyPrefix + KEY_OPENINGS, 0);
+        mRetryTime = SyncState.getLong(contentResolver, keyPrefix + KEY_RETRY_TIME, 0);
+    }
+
+    /**
+     * @return the current time in milliseconds; overridden by tests
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public synchronized @State int getState() {
+        if (mOpenings == 0) {
+            return STATE_CLOSED;
+        }
+        return currentTimeMillis() < mRetryTime ? STATE_OPEN : STATE_HALF_OPEN;
+    }
+
+    /**
+     * Asks for permission to send a request.  Every request that was allowed must be followed
+     * by a call to {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @return false if the request must not be sent
+     */
+    public synchronized boolean allowRequest() {
+        switch (getState()) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_HALF_OPEN:
+                if (mProbeInFlight) {
+                    return false;
+                }
+                Log.d(LOG_TAG, mKeyPrefix + ": letting a probe through");
+                mProbeInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return when the breaker lets the next request through, in milliseconds since the
+     * epoch, or 0 if it is closed
+     */
+    public synchronized long getRetryTime() {
+        return mOpenings == 0 ? 0 : mRetryTime;
+    }
+
+    /**
+     * Records that the server answered properly.  Closes the breaker.
+     */
+    public synchronized void onSuccess() {
+        mProbeInFlight = false;
+        if (mFailures == 0 && mOpenings == 0) {
+            return;
+        }
+        if (mOpenings > 0) {
+            Log.d(LOG_TAG, mKeyPrefix + ": closed");
+        }
+        mFailures = 0;
+        mOpenings = 0;
+        mRetryTime = 0;
+        mChanged = true;
+    }
+
+    /**
+     * Records that the server couldn't be reached or answered with an error.  Opens the
+     * breaker once failures pile up, or again right away if the failed request was the probe.
+     */
+    public synchronized void onFailure() {
+        boolean probe = mProbeInFlight;
+        mProbeInFlight = false;
+        mFailures++;
+        if (probe || (mOpenings == 0 && mFailures >= FAILURE_THRESHOLD)) {
+            mOpenings++;
+            long delay = getBackoffDelay(mOpenings);
+            mRetryTime = currentTimeMillis() + delay;
+            Log.d(LOG_TAG, mKeyPrefix + ": open for " + delay + "ms after " + mFailures
+                    + " failures");
+        }
+        mChanged = true;
+    }
+
+    /**
+     * @return the delay before the breaker opened for the given time lets a probe through:
+     * the exponential delay, with up to half of it randomly taken off
+     */
+    long getBackoffDelay(int openings) {
+        long delay = BASE_DELAY_MILLIS << Math.min(openings - 1, 20);
+        delay = Math.min(delay, MAX_DELAY_MILLIS);
+        return delay - (long) (mRandom.nextDouble() * delay / 2);
+    }
+
+    /**
+     * Adds the state to the values, for the caller to store with {@link SyncState#putAll}, if
+     * it changed since the last call.
+     */
+    public synchronized void saveTo(Map<String, Long> values) {
+        if (!mChanged) {
+            return;
+        }
+        values.put(mKeyPrefix + KEY_FAILURES, (long) mFailures);
+        values.put(mKeyPrefix + KEY_OPENINGS, (long) mOpenings);
+        values.put(mKeyPrefix + KEY_RETRY_TIME, mRetryTime);
+        mChanged = false;
+    }
+}
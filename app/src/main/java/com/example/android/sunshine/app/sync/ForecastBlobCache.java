@@ -0,0 +1,319 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the last successful forecast response of every location, gzip compressed, in the app's
+ * private files.  The database can be rebuilt from these without going back to the network,
+ * after an upgrade wiped it for instance.
+ *
+ * Each location is one file, named after its location setting.  The file starts with the
+ * Julian day the forecast's first entry belongs to, on a line of its own, followed by the body
+ * exactly as the server sent it.  The cache is capped in size; whatever was written or read
+ * longest ago is evicted first.
+ */
+public class ForecastBlobCache {
+    private static final String LOG_TAG = ForecastBlobCache.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "forecast-cache";
+    // A compressed 14 day forecast is a couple of KB
+    public static final long DEFAULT_MAX_SIZE = 256 * 1024;
+
+    private static final String FILE_SUFFIX = ".json.gz";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxSize;
+
+    public ForecastBlobCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the cache kept in the app's private files
+     */
+    public static ForecastBlobCache open(Context context) {
+        return new ForecastBlobCache(new File(context.getFilesDir(), DIRECTORY_NAME),
+                DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Starts writing a new response for the location.  The response that is already cached
+     * stays in place until the new one is committed.
+     *
+     * @param julianStartDay the Julian day of the first entry in the response
+     * @return the editor, or null if the cache can't be written to
+     */
+    public Editor edit(String locationSetting, int julianStartDay) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Can't create " + mDirectory);
+            return null;
+        }
+        File tempFile = new File(mDirectory, getFileName(locationSetting) + TEMP_SUFFIX);
+        try {
+            return new Editor(locationSetting, tempFile, julianStartDay);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't write " + tempFile, e);
+            tempFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Opens the cached response of the location and marks it as recently used.
+     *
+     * @return the response, which must be closed by the caller, or null if none is cached
+     */
+    public Entry get(String locationSetting) throws IOException {
+        File file = getFile(locationSetting);
+        if (!file.isFile()) {
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return new Entry(locationSetting, file);
+    }
+
+    /**
+     * Marks the cached response of the location as recently used, because the server
+     * confirmed it is still the latest one.
+     */
+    public void touch(String locationSetting) {
+        File file = getFile(locationSetting);
+        if (file.isFile()) {
+            file.setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return the location settings of all cached responses
+     */
+    public List<String> getLocationSettings() {
+        List<String> locationSettings = new ArrayList<String>();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.endsWith(FILE_SUFFIX)) {
+                    locationSettings.add(Uri.decode(
+                            name.substring(0, name.length() - FILE_SUFFIX.length())));
+                }
+            }
+        }
+        return locationSettings;
+    }
+
+    /**
+     * @return the number of bytes the cached responses take up
+     */
+    public synchronized long size() {
+        long size = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(FILE_SUFFIX)) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used responses until the cache fits its size again.
+     */
+    synchronized void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> cached = new ArrayList<File>(files.length);
+        long size = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                cached.add(file);
+                size += file.length();
+            }
+        }
+        if (size <= mMaxSize) {
+            return;
+        }
+
+        File[] byAge = cached.toArray(new File[cached.size()]);
+        Arrays.sort(byAge, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsTime = lhs.lastModified();
+                long rhsTime = rhs.lastModified();
+                return lhsTime < rhsTime ? -1 : (lhsTime == rhsTime ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < byAge.length && size > mMaxSize; i++) {
+            long length = byAge[i].length();
+            if (byAge[i].delete()) {
+                size -= length;
+                Log.d(LOG_TAG, "Evicted " + byAge[i].getName());
+            }
+        }
+    }
+
+    private File getFile(String locationSetting) {
+        return new File(mDirectory, getFileName(locationSetting));
+    }
+
+    private static String getFileName(String locationSetting) {
+        // Encoding keeps separators and other odd characters of the setting out of the name
+        return Uri.encode(locationSetting) + FILE_SUFFIX;
+    }
+
+    /**
+     * Writes one response into the cache.  Write failures never reach whoever writes into
+     * {@link #getStream()}, which is typically the download of the response itself; they only
+     * keep the response from being committed.
+     */
+    public class Editor {
+        private final String mLocationSetting;
+        private final File mTempFile;
+        private final GZIPOutputStream mOut;
+        private final OutputStream mStream;
+        private boolean mFailed;
+        private boolean mDone;
+
+        Editor(String locationSetting, File tempFile, int julianStartDay) throws IOException {
+            mLocationSetting = locationSetting;
+            mTempFile = tempFile;
+            mOut = new GZIPOutputStream(new FileOutputStream(tempFile));
+            mOut.write((Integer.toString(julianStartDay) + '\n').getBytes("US-ASCII"));
+            mStream = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int count) {
+                    if (mFailed || mDone) {
+                        return;
+                    }
+                    try {
+                        mOut.write(buffer, offset, count);
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Can't write " + mTempFile, e);
+                        mFailed = true;
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return the stream the response body is written to
+         */
+        public OutputStream getStream() {
+            return mStream;
+        }
+
+        /**
+         * Replaces the cached response of the location with the one written so far.
+         *
+         * @return true if the response is now in the cache
+         */
+        public boolean commit() {
+            if (mDone) {
+                return false;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Can't write " + mTempFile, e);
+                mFailed = true;
+            }
+            if (mFailed || !mTempFile.renameTo(getFile(mLocationSetting))) {
+                mTempFile.delete();
+                return false;
+            }
+            trimToSize();
+            return true;
+        }
+
+        /**
+         * Drops the response written so far, keeping the one that was cached before.
+         */
+        public void abort() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // It's going away anyway
+            }
+            mTempFile.delete();
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    public static class Entry implements Closeable {
+        public final String locationSetting;
+        // The Julian day of the first entry in the body
+        public final int julianStartDay;
+        private final InputStream mBody;
+
+        Entry(String locationSetting, File file) throws IOException {
+            this.locationSetting = locationSetting;
+            InputStream in = new FileInputStream(file);
+            try {
+                in = new BufferedInputStream(new GZIPInputStream(in));
+                int julianStartDay = 0;
+                int b;
+                while ((b = in.read()) != '\n') {
+                    if (b < '0' || b > '9') {
+                        throw new IOException("Corrupt cache file " + file);
+                    }
+                    julianStartDay = julianStartDay * 10 + (b - '0');
+                }
+                this.julianStartDay = julianStartDay;
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            mBody = in;
+        }
+
+        /**
+         * @return the decompressed response body
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            try {
+                mBody.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+        }
+    }
+}
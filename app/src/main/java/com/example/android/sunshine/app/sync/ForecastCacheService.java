@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+
+/**
+ * Restores the forecasts missing from the database from the {@link ForecastBlobCache}, so the
+ * app has something to show at startup, after an upgrade dropped the tables for instance,
+ * before the next sync gets through.
+ */
+public class ForecastCacheService extends IntentService {
+    private static final String LOG_TAG = ForecastCacheService.class.getSimpleName();
+
+    public ForecastCacheService() {
+        super("ForecastCacheService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        ForecastBlobCache cache = ForecastBlobCache.open(this);
+        if (cache.getLocationSettings().isEmpty()) {
+            return;
+        }
+
+        CircuitBreaker breaker = new CircuitBreaker(getContentResolver(),
+                WeatherContract.SyncStateEntry.KEY_FORECAST_BREAKER_PREFIX);
+        List<SyncEngine.LocationResult> results =
+                new SyncEngine(this, 1, new SyncMetrics(), breaker, cache).reingest();
+        Log.d(LOG_TAG, results.size() + " locations restored from the cache");
+
+        String preferredLocation = Utility.getPreferredLocation(this);
+        for (SyncEngine.LocationResult result : results) {
+            if (result.locationSetting.equals(preferredLocation) && result.hasChanges()) {
+                ForecastSnapshot.update(this, preferredLocation);
+                // The forecast list follows the provider by itself, but widgets and Muzei
+                // have to be told
+                SunshineSyncAdapter.createDispatcher(this)
+                        .dispatch(ForecastResult.query(this, preferredLocation));
+            }
+        }
+    }
+}
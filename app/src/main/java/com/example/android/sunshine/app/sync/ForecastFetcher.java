@@ -0,0 +1,582 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Downloads forecasts over HTTP, replaying the validators kept in a {@link ValidatorStore} so
+ * that an unchanged forecast costs a 304 instead of a full download.
+ *
+ * Servers that don't send validators are covered by hashing the body while it is read: once
+ * the body has been consumed, {@link Download#isBodyUnchanged()} tells whether it is byte for
+ * byte the one that was stored last time.
+ *
+ * Responses are requested gzip or deflate compressed and inflated on the fly as the body is
+ * read, so neither the compressed nor the decompressed body is ever buffered as a whole.
+ *
+ * With a {@link PartialDownloadStore}, the wire bytes of a body are also kept on disk while it
+ * downloads.  If the download is cancelled or the connection drops, the next request for the
+ * same URI asks for the rest only, with a Range request guarded by If-Range, and the body is
+ * read from the kept bytes followed by the rest.  That only happens for servers that say they
+ * accept byte ranges and send a strong ETag or a Last-Modified date to guard the range with.
+ *
+ * A download whose body was read to the end leaves its connection to HttpURLConnection's pool
+ * rather than disconnecting it, so the requests of a sync share a few kept-alive connections
+ * instead of paying for a new handshake each.
+ */
+public class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    private static final String RANGE_UNIT_BYTES = "bytes";
+    // Weak ETags may not guard a range
+    private static final String WEAK_ETAG_PREFIX = "W/";
+
+    // Setting Accept-Encoding ourselves turns off HttpURLConnection's transparent gzip
+    // support, which hides both the Content-Encoding and the number of bytes on the wire.
+    private static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+    private static final int INFLATER_BUFFER_SIZE = 4096;
+
+    private static final String BODY_HASH_ALGORITHM = "SHA-1";
+
+    private static final String ENCODING_IDENTITY = "identity";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_X_GZIP = "x-gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    private final ValidatorStore mValidatorStore;
+    private final PartialDownloadStore mPartialStore;
+
+    public ForecastFetcher(ValidatorStore validatorStore) {
+        this(validatorStore, null);
+    }
+
+    /**
+     * @param partialStore where cut short bodies are kept to resume from, or null to always
+     *                     download bodies from their first byte
+     */
+    public ForecastFetcher(ValidatorStore validatorStore, PartialDownloadStore partialStore) {
+        mValidatorStore = validatorStore;
+        mPartialStore = partialStore;
+    }
+
+    /**
+     * Sends the request and waits for the response headers.
+     *
+     * @param requestUri the full request URI, which is also the key of its validators
+     * @param conditional whether stored validators may be used.  Pass false whenever the data
+     *                    the validators describe is no longer stored, or a 304 would leave the
+     *                    caller with nothing to show.
+     * @return the open download, which must be closed by the caller
+     * @throws IOException if the server could not be reached
+     */
+    public Download open(String requestUri, boolean conditional) throws IOException {
+        ValidatorStore.Validator validator = conditional ? mValidatorStore.get(requestUri) : null;
+        PartialDownloadStore.Partial partial =
+                mPartialStore == null ? null : mPartialStore.get(requestUri);
+
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(requestUri).openConnection();
+        boolean opened = false;
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ACCEPTED_ENCODINGS);
+            if (validator != null) {
+                if (validator.etag != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, validator.etag);
+                }
+                if (validator.lastModified != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE,
+                            validator.lastModified);
+                }
+            }
+            if (partial != null) {
+                // If the body changed since, If-Range makes the server send all of it instead
+                urlConnection.setRequestProperty(HEADER_RANGE,
+                        RANGE_UNIT_BYTES + "=" + partial.length + "-");
+                urlConnection.setRequestProperty(HEADER_IF_RANGE, partial.ifRange);
+            }
+
+            long start = System.nanoTime();
+            SyncMetrics.beginSection(WeatherContract.SyncMetricsEntry.PHASE_CONNECT);
+            try {
+                urlConnection.connect();
+            } finally {
+                SyncMetrics.endSection();
+            }
+            long connectNanos = System.nanoTime() - start;
+
+            // Asking for the status waits for the response headers
+            start = System.nanoTime();
+            int responseCode;
+            SyncMetrics.beginSection(WeatherContract.SyncMetricsEntry.PHASE_FIRST_BYTE);
+            try {
+                responseCode = urlConnection.getResponseCode();
+            } finally {
+                SyncMetrics.endSection();
+            }
+            long firstByteNanos = System.nanoTime() - start;
+
+            if (partial != null && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                // The kept bytes belong to a body the server no longer sends
+                mPartialStore.remove(requestUri);
+                partial = null;
+            }
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = urlConnection.getHeaderField(HEADER_CONTENT_RANGE);
+                if (partial == null || getRangeStart(contentRange) != partial.length) {
+                    if (mPartialStore != null) {
+                        mPartialStore.remove(requestUri);
+                    }
+                    throw new IOException("Unexpected partial response: " + contentRange);
+                }
+            }
+
+            Download download = new Download(requestUri, urlConnection, validator, partial,
+                    responseCode, connectNanos, firstByteNanos);
+            opened = true;
+            return download;
+        } finally {
+            if (!opened) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * A response to a forecast request.
+     */
+    public class Download implements Closeable {
+        private final String mRequestUri;
+        private final HttpURLConnection mConnection;
+        private final ValidatorStore.Validator mValidator;
+        // The start of the body, if the server only sends the rest of it
+        private final PartialDownloadStore.Partial mPartial;
+        private final boolean mNotModified;
+        private final long mConnectNanos;
+        private final long mFirstByteNanos;
+
+        private CountingInputStream mWireStream;
+        private CountingInputStream mDecodedStream;
+        private OutputStream mBodyCopy;
+        private PartialDownloadStore.Writer mPartialWriter;
+        private DigestInputStream mBody;
+        private String mBodyHash;
+        // Set by cancel() from any thread
+        private volatile boolean mCancelled;
+        private boolean mWireFailed;
+        private boolean mWireEnded;
+
+        Download(String requestUri, HttpURLConnection connection,
+                 ValidatorStore.Validator validator, PartialDownloadStore.Partial partial,
+                 int responseCode, long connectNanos, long firstByteNanos) {
+            mRequestUri = requestUri;
+            mConnection = connection;
+            mValidator = validator;
+            mPartial = partial;
+            mNotModified = validator != null &&
+                    responseCode == HttpURLConnection.HTTP_NOT_MODIFIED;
+            mConnectNanos = connectNanos;
+            mFirstByteNanos = firstByteNanos;
+        }
+
+        /**
+         * @return how long opening the connection took, in nanoseconds
+         */
+        public long getConnectNanos() {
+            return mConnectNanos;
+        }
+
+        /**
+         * @return how long the server took to answer once the connection was open, in
+         * nanoseconds
+         */
+        public long getFirstByteNanos() {
+            return mFirstByteNanos;
+        }
+
+        /**
+         * @return true if the server confirmed that the stored forecast is still current, in
+         * which case there is no body to read
+         */
+        public boolean isNotModified() {
+            return mNotModified;
+        }
+
+        /**
+         * Copies the decompressed body to the given stream as it is read, up to its very last
+         * byte.  Only takes effect before the body is first asked for.
+         */
+        public void copyBodyTo(OutputStream copy) {
+            mBodyCopy = copy;
+        }
+
+        /**
+         * @return true if the server only sends the part of the body that an earlier, cut
+         * short download didn't get
+         */
+        public boolean isResumed() {
+            return mPartial != null;
+        }
+
+        /**
+         * Stops the download at the next chunk of the body, or right away if the thread
+         * reading it is blocked on the network.  Reads of the body throw a
+         * {@link SyncCancelledException} from then on.  Safe to call from any thread.
+         */
+        public void cancel() {
+            mCancelled = true;
+            mConnection.disconnect();
+        }
+
+        /**
+         * @return the decompressed response body, hashed as it is read
+         * @throws IOException if the server answered with an error status, or with a
+         * Content-Encoding we didn't ask for
+         */
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                if (mCancelled) {
+                    throw new SyncCancelledException();
+                }
+                mWireStream = new CountingInputStream(mConnection.getInputStream());
+                InputStream wire = new WireInputStream(mWireStream,
+                        getContentLength(mConnection));
+                String contentEncoding = mConnection.getContentEncoding();
+                if (mPartialStore != null) {
+                    if (mPartial != null) {
+                        mPartialWriter = mPartialStore.append(mRequestUri, mPartial);
+                    } else {
+                        String ifRange = getIfRange(mConnection);
+                        if (ifRange != null) {
+                            mPartialWriter = mPartialStore.write(mRequestUri, ifRange,
+                                    contentEncoding);
+                        }
+                    }
+                }
+                if (mPartialWriter != null) {
+                    wire = new TeeInputStream(wire, mPartialWriter.getStream());
+                }
+                if (mPartial != null) {
+                    // The rest of the body continues the kept bytes, in their encoding
+                    wire = new SequenceInputStream(mPartial.open(), wire);
+                    contentEncoding = mPartial.contentEncoding;
+                }
+                mDecodedStream = new CountingInputStream(decode(wire, contentEncoding));
+                InputStream decoded = mDecodedStream;
+                if (mBodyCopy != null) {
+                    decoded = new TeeInputStream(decoded, mBodyCopy);
+                }
+                mBody = new DigestInputStream(decoded, newBodyDigest());
+            }
+            return mBody;
+        }
+
+        /**
+         * @return how many bytes of the body were read off the network so far, not counting
+         * those an earlier download kept
+         */
+        public long getCompressedBytes() {
+            return mWireStream == null ? 0 : mWireStream.getCount();
+        }
+
+        /**
+         * @return how many bytes the body read so far decompressed to
+         */
+        public long getDecompressedBytes() {
+            return mDecodedStream == null ? 0 : mDecodedStream.getCount();
+        }
+
+        /**
+         * Reads whatever the parser left of the body and compares it with the body stored last
+         * time.
+         *
+         * @return true if the body is exactly the one the stored forecast was parsed from
+         */
+        public boolean isBodyUnchanged() throws IOException {
+            String bodyHash = finishBody();
+            return mValidator != null && bodyHash.equals(mValidator.bodyHash);
+        }
+
+        /**
+         * Remembers this response as the one the stored forecast comes from.  Only call this
+         * once the forecast has been stored successfully, or the next sync may skip it.
+         */
+        public void commit() throws IOException {
+            long now = System.currentTimeMillis();
+            if (mPartialStore != null) {
+                // Whatever was kept for this request is of no use anymore
+                mPartialStore.remove(mRequestUri);
+            }
+            if (mNotModified) {
+                mValidatorStore.touch(mRequestUri, now);
+                return;
+            }
+            mValidatorStore.put(mRequestUri, new ValidatorStore.Validator(
+                    mConnection.getHeaderField(HEADER_ETAG),
+                    mConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                    finishBody(),
+                    now));
+        }
+
+        private String finishBody() throws IOException {
+            if (mBodyHash == null) {
+                InputStream body = getBody();
+                byte[] buffer = new byte[1024];
+                // The parser stops at the end of the JSON object; drain any trailing bytes so
+                // the hash always covers the complete body.
+                while (body.read(buffer) != -1) {
+                    // keep reading
+                }
+                mBodyHash = toHex(mBody.getMessageDigest().digest());
+            }
+            return mBodyHash;
+        }
+
+        @Override
+        public void close() {
+            if (mPartialWriter != null) {
+                // Only a body that was cut short is worth resuming; one that was read to the
+                // end, or abandoned because it was of no use, is not
+                if (mWireFailed || mCancelled) {
+                    mPartialWriter.keep();
+                } else {
+                    mPartialWriter.discard();
+                }
+            }
+            // Disconnecting closes the socket; a connection with nothing left to read can go
+            // back to the pool by closing its stream instead
+            boolean reusable = !mCancelled && (mWireEnded || (mBody == null && mNotModified));
+            if (mBody != null) {
+                try {
+                    mBody.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                    reusable = false;
+                }
+            } else if (reusable) {
+                try {
+                    mConnection.getInputStream().close();
+                } catch (IOException e) {
+                    reusable = false;
+                }
+            }
+            if (!reusable) {
+                mConnection.disconnect();
+            }
+        }
+
+        /**
+         * Where the body meets the network: checks for cancellation before every chunk, and
+         * notes whether the body was cut short.
+         */
+        private class WireInputStream extends FilterInputStream {
+            private final long mContentLength;
+
+            /**
+             * @param contentLength the number of bytes the server announced, or -1
+             */
+            WireInputStream(InputStream in, long contentLength) {
+                super(in);
+                mContentLength = contentLength;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] buffer = new byte[1];
+                return read(buffer, 0, 1) == -1 ? -1 : buffer[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                if (mCancelled || Thread.currentThread().isInterrupted()) {
+                    mCancelled = true;
+                    throw new SyncCancelledException();
+                }
+                try {
+                    int read = super.read(buffer, offset, count);
+                    if (read == -1) {
+                        if (mContentLength >= 0 && mWireStream.getCount() < mContentLength) {
+                            // Some HttpURLConnections report a dropped connection as the end
+                            // of the body
+                            throw new EOFException("Body cut short after "
+                                    + mWireStream.getCount() + " of " + mContentLength
+                                    + " bytes");
+                        }
+                        mWireEnded = true;
+                    }
+                    return read;
+                } catch (IOException e) {
+                    mWireFailed = true;
+                    if (mCancelled) {
+                        // Disconnecting is what broke the read
+                        throw new SyncCancelledException();
+                    }
+                    throw e;
+                }
+            }
+
+            @Override
+            public long skip(long count) throws IOException {
+                // Skipped bytes must still pass the checks and reach the partial body
+                byte[] buffer = new byte[(int) Math.min(Math.max(count, 0), 1024)];
+                long skipped = 0;
+                while (skipped < count) {
+                    int read = read(buffer, 0, (int) Math.min(count - skipped, buffer.length));
+                    if (read == -1) {
+                        break;
+                    }
+                    skipped += read;
+                }
+                return skipped;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return what an If-Range header would guard the rest of this response with, or null if
+     * the server doesn't take byte ranges or sends nothing strong enough to guard them
+     */
+    private static String getIfRange(HttpURLConnection connection) {
+        String acceptRanges = connection.getHeaderField(HEADER_ACCEPT_RANGES);
+        if (acceptRanges == null || !acceptRanges.trim().equalsIgnoreCase(RANGE_UNIT_BYTES)) {
+            return null;
+        }
+        String etag = connection.getHeaderField(HEADER_ETAG);
+        if (etag != null && !etag.startsWith(WEAK_ETAG_PREFIX)) {
+            return etag;
+        }
+        return connection.getHeaderField(HEADER_LAST_MODIFIED);
+    }
+
+    /**
+     * @return the Content-Length of the response, or -1 if there is none
+     */
+    private static long getContentLength(HttpURLConnection connection) {
+        String contentLength = connection.getHeaderField(HEADER_CONTENT_LENGTH);
+        if (contentLength == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the first byte of a "bytes first-last/length" Content-Range, or -1 if it can't
+     * be parsed
+     */
+    static long getRangeStart(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        String range = contentRange.trim();
+        if (!range.regionMatches(true, 0, RANGE_UNIT_BYTES + " ", 0,
+                RANGE_UNIT_BYTES.length() + 1)) {
+            return -1;
+        }
+        int dash = range.indexOf('-');
+        if (dash == -1) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(RANGE_UNIT_BYTES.length() + 1, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Wraps the body in whatever it takes to undo its Content-Encoding.
+     */
+    static InputStream decode(InputStream in, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return in;
+        }
+        String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (encoding.length() == 0 || ENCODING_IDENTITY.equals(encoding)) {
+            return in;
+        } else if (ENCODING_GZIP.equals(encoding) || ENCODING_X_GZIP.equals(encoding)) {
+            return new GZIPInputStream(in, INFLATER_BUFFER_SIZE);
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            // HTTP's "deflate" is supposed to be zlib wrapped, but plenty of servers send a
+            // raw deflate stream.  A zlib header is easy to spot in the first two bytes.
+            PushbackInputStream pushback = new PushbackInputStream(in, 2);
+            byte[] header = new byte[2];
+            int count = 0;
+            int read;
+            while (count < header.length
+                    && (read = pushback.read(header, count, header.length - count)) != -1) {
+                count += read;
+            }
+            pushback.unread(header, 0, count);
+            boolean zlibWrapped = count == 2
+                    && (header[0] & 0x0f) == 8
+                    && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+
+            final Inflater inflater = new Inflater(!zlibWrapped);
+            return new InflaterInputStream(pushback, inflater, INFLATER_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    // InflaterInputStream only releases inflaters it created itself
+                    super.close();
+                    inflater.end();
+                }
+            };
+        }
+        throw new IOException("Unsupported Content-Encoding: " + contentEncoding);
+    }
+
+    private static MessageDigest newBodyDigest() {
+        try {
+            return MessageDigest.getInstance(BODY_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android device is required to provide SHA-1
+            throw new IllegalStateException(BODY_HASH_ALGORITHM + " not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The upcoming days of a location, read once after a sync and handed to everything that shows
+ * them outside the app, so none of them has to query the provider again.
+ *
+ * Nothing in it changes once it is built, which is what lets {@link SyncDispatcher} hand the
+ * same instance to several consumers at once.  It also travels in the extras of the intents
+ * that wake the widgets and Muzei up, see {@link #toBundle} and {@link #fromBundle}.
+ */
+public final class ForecastResult {
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    // Bundle keys
+    private static final String KEY_LOCATION_SETTING = "forecast_location_setting";
+    private static final String KEY_DATES = "forecast_dates";
+    private static final String KEY_WEATHER_IDS = "forecast_weather_ids";
+    private static final String KEY_SHORT_DESCS = "forecast_short_descs";
+    private static final String KEY_HIGHS = "forecast_highs";
+    private static final String KEY_LOWS = "forecast_lows";
+
+    /**
+     * One day of the forecast.
+     */
+    public static final class Day {
+        public final long date;
+        public final int weatherId;
+        public final String shortDesc;
+        public final double high;
+        public final double low;
+
+        public Day(long date, int weatherId, String shortDesc, double high, double low) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.shortDesc = shortDesc;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    public final String locationSetting;
+    // From today on, in date order
+    public final List<Day> days;
+
+    public ForecastResult(String locationSetting, List<Day> days) {
+        this.locationSetting = locationSetting;
+        this.days = Collections.unmodifiableList(new ArrayList<Day>(days));
+    }
+
+    /**
+     * @return the first day from today on, or null if there is none
+     */
+    public Day getToday() {
+        return days.isEmpty() ? null : days.get(0);
+    }
+
+    /**
+     * Reads the location's days from today on, from the snapshot if there is one and the
+     * provider otherwise.
+     */
+    public static ForecastResult query(Context context, String locationSetting) {
+        Cursor cursor = ForecastSnapshot.query(context, locationSetting, FORECAST_COLUMNS);
+        if (cursor == null) {
+            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                    locationSetting, System.currentTimeMillis());
+            cursor = context.getContentResolver().query(weatherUri, FORECAST_COLUMNS, null,
+                    null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
+
+        List<Day> days = new ArrayList<Day>();
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    days.add(new Day(cursor.getLong(INDEX_DATE), cursor.getInt(INDEX_WEATHER_ID),
+                            cursor.getString(INDEX_SHORT_DESC), cursor.getDouble(INDEX_MAX_TEMP),
+                            cursor.getDouble(INDEX_MIN_TEMP)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new ForecastResult(locationSetting, days);
+    }
+
+    public Bundle toBundle() {
+        int count = days.size();
+        long[] dates = new long[count];
+        int[] weatherIds = new int[count];
+        String[] shortDescs = new String[count];
+        double[] highs = new double[count];
+        double[] lows = new double[count];
+        for (int i = 0; i < count; i++) {
+            Day day = days.get(i);
+            dates[i] = day.date;
+            weatherIds[i] = day.weatherId;
+            shortDescs[i] = day.shortDesc;
+            highs[i] = day.high;
+            lows[i] = day.low;
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_LOCATION_SETTING, locationSetting);
+        bundle.putLongArray(KEY_DATES, dates);
+        bundle.putIntArray(KEY_WEATHER_IDS, weatherIds);
+        bundle.putStringArray(KEY_SHORT_DESCS, shortDescs);
+        bundle.putDoubleArray(KEY_HIGHS, highs);
+        bundle.putDoubleArray(KEY_LOWS, lows);
+        return bundle;
+    }
+
+    /**
+     * @return the result {@link #toBundle} put in the bundle, or null if there is none or it
+     * isn't complete
+     */
+    public static ForecastResult fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        String locationSetting = bundle.getString(KEY_LOCATION_SETTING);
+        long[] dates = bundle.getLongArray(KEY_DATES);
+        int[] weatherIds = bundle.getIntArray(KEY_WEATHER_IDS);
+        String[] shortDescs = bundle.getStringArray(KEY_SHORT_DESCS);
+        double[] highs = bundle.getDoubleArray(KEY_HIGHS);
+        double[] lows = bundle.getDoubleArray(KEY_LOWS);
+        if (locationSetting == null || dates == null || weatherIds == null
+                || shortDescs == null || highs == null || lows == null) {
+            return null;
+        }
+        int count = dates.length;
+        if (weatherIds.length != count || shortDescs.length != count || highs.length != count
+                || lows.length != count) {
+            return null;
+        }
+
+        // Skip the days that went by since the result was built
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        List<Day> days = new ArrayList<Day>(count);
+        for (int i = 0; i < count; i++) {
+            if (dates[i] >= today) {
+                days.add(new Day(dates[i], weatherIds[i], shortDescs[i], highs[i], lows[i]));
+            }
+        }
+        return new ForecastResult(locationSetting, days);
+    }
+}
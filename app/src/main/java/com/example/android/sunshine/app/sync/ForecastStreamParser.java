@@ -0,0 +1,327 @@
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pulls the daily forecast out of an OpenWeatherMap response while it is still streaming in.
+ *
+ * Unlike building a {@link org.json.JSONObject} from the complete body, only the day currently
+ * being read is held in memory, in primitives rather than ContentValues: every finished day is
+ * handed straight to a {@link Listener}, so memory stays flat no matter how many days the
+ * server sends back.
+ */
+public class ForecastStreamParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the pieces of a forecast in the order they are found in the stream.
+     */
+    public interface Listener {
+        /**
+         * Called once the "city" object has been read.  OWM normally sends it before the list
+         * of days, but nothing guarantees that, so listeners must cope with days arriving first.
+         *
+         * @param cityId OWM's ID of the city, or 0 if the response didn't name one
+         */
+        void onCity(long cityId, String cityName, double lat, double lon);
+
+        /**
+         * Called for every complete day with every weather column except
+         * {@link WeatherContract.WeatherEntry#COLUMN_LOC_KEY}, which only the caller knows, in
+         * the order {@link com.example.android.sunshine.app.data.ForecastRows#add} takes them.
+         *
+         * @param date the day as a UTC millisecond value
+         */
+        void onDay(long date, long weatherId, String shortDesc, double minTemp, double maxTemp,
+                   double humidity, double pressure, double windSpeed, double degrees);
+    }
+
+    private ForecastStreamParser() {
+    }
+
+    /**
+     * Reads a forecast from the given stream, reporting everything it finds to the listener.
+     *
+     * @param in the raw response body
+     * @param julianStartDay the Julian day of the first entry in the list; OWM sends the days
+     *                       in order, starting with the current local day
+     * @param listener where the city and the days are handed to
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response didn't carry one.  Parsing stops as soon as a non-OK code is found.
+     * @throws IOException if the stream could not be read, including an empty body
+     * @throws JSONException if the body isn't a well formed forecast
+     */
+    public static int parse(InputStream in, int julianStartDay, Listener listener)
+            throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, julianStartDay, listener);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Anything the reader chokes on is the server's fault, not the network's.
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private static int readForecast(JsonReader reader, int julianStartDay, Listener listener)
+            throws IOException, JSONException {
+        boolean cityFound = false;
+        boolean listFound = false;
+
+        // An empty body fails right here with an EOFException, which callers treat the same
+        // way as any other failure to read from the server.
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends the code as a string on success and as a number on some errors
+                int code = Integer.parseInt(reader.nextString());
+                if (code != HttpURLConnection.HTTP_OK) {
+                    return code;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, listener);
+                cityFound = true;
+            } else if (OWM_LIST.equals(name)) {
+                readDays(reader, julianStartDay, listener);
+                listFound = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!cityFound) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        if (!listFound) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private static void readCity(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        String cityName = null;
+        long cityId = 0;
+        double cityLatitude = Double.NaN;
+        double cityLongitude = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || Double.isNaN(cityLatitude) || Double.isNaN(cityLongitude)) {
+            throw new JSONException("Incomplete value for " + OWM_CITY);
+        }
+        listener.onCity(cityId, cityName, cityLatitude, cityLongitude);
+    }
+
+    private static void readDays(JsonReader reader, int julianStartDay, Listener listener)
+            throws IOException, JSONException {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, so we use the position in the list to get a nice normalized UTC date.
+        Time dayTime = new Time();
+        Day day = new Day();
+
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            day.clear();
+            readDay(reader, day);
+
+            String missing = day.getMissingColumn();
+            if (missing != null) {
+                throw new JSONException("No value for " + missing + " in day " + i);
+            }
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            listener.onDay(dayTime.setJulianDay(julianStartDay + i), day.weatherId,
+                    day.shortDesc, day.minTemp, day.maxTemp, day.humidity, day.pressure,
+                    day.windSpeed, day.degrees);
+        }
+        reader.endArray();
+    }
+
+    private static void readDay(JsonReader reader, Day day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = (int) reader.nextDouble();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.degrees = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        day.maxTemp = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        day.minTemp = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readWeatherCondition(reader, day);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readWeatherCondition(JsonReader reader, Day day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                day.shortDesc = reader.nextString();
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                day.weatherId = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * The columns of the day being read, reused from one day to the next.  Columns that weren't
+     * found are NaN, or null, or NO_WEATHER_ID.
+     */
+    private static class Day {
+        static final long NO_WEATHER_ID = Long.MIN_VALUE;
+
+        long weatherId;
+        String shortDesc;
+        double minTemp;
+        double maxTemp;
+        double humidity;
+        double pressure;
+        double windSpeed;
+        double degrees;
+
+        void clear() {
+            weatherId = NO_WEATHER_ID;
+            shortDesc = null;
+            minTemp = Double.NaN;
+            maxTemp = Double.NaN;
+            humidity = Double.NaN;
+            pressure = Double.NaN;
+            windSpeed = Double.NaN;
+            degrees = Double.NaN;
+        }
+
+        /**
+         * @return the first column the day has no value for, or null if it's complete
+         */
+        String getMissingColumn() {
+            if (Double.isNaN(pressure)) {
+                return WeatherContract.WeatherEntry.COLUMN_PRESSURE;
+            }
+            if (Double.isNaN(humidity)) {
+                return WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+            }
+            if (Double.isNaN(windSpeed)) {
+                return WeatherContract.WeatherEntry.COLUMN_WIND_SPEED;
+            }
+            if (Double.isNaN(degrees)) {
+                return WeatherContract.WeatherEntry.COLUMN_DEGREES;
+            }
+            if (Double.isNaN(maxTemp)) {
+                return WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
+            }
+            if (Double.isNaN(minTemp)) {
+                return WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
+            }
+            if (shortDesc == null) {
+                return WeatherContract.WeatherEntry.COLUMN_SHORT_DESC;
+            }
+            if (weatherId == NO_WEATHER_ID) {
+                return WeatherContract.WeatherEntry.COLUMN_WEATHER_ID;
+            }
+            return null;
+        }
+    }
+}
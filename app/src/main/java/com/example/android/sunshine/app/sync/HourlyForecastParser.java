@@ -0,0 +1,218 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.text.format.DateUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pulls the 3 hour steps out of an OpenWeatherMap 5 day forecast while it is still streaming
+ * in.  Like {@link ForecastStreamParser}, every finished entry is handed straight to a
+ * {@link Listener}, so only the entry being read is held in memory.
+ *
+ * The city is skipped: hourly forecasts are only fetched for locations the daily sync has
+ * already stored.
+ */
+public class HourlyForecastParser {
+
+    // Each 3 hour step is an element of the "list" array
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind speed and direction are children of the "wind" object
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Every column an entry must provide before it is handed to the listener
+    private static final String[] REQUIRED_COLUMNS = {
+            WeatherContract.HourlyWeatherEntry.COLUMN_TIME,
+            WeatherContract.HourlyWeatherEntry.COLUMN_TEMP,
+            WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES,
+            WeatherContract.HourlyWeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    /**
+     * Receives the entries in the order they are found in the stream.
+     */
+    public interface Listener {
+        /**
+         * Called for every complete entry.  The values hold every hourly weather column
+         * except {@link WeatherContract.HourlyWeatherEntry#COLUMN_LOC_KEY}.
+         */
+        void onEntry(ContentValues hourlyValues);
+    }
+
+    private HourlyForecastParser() {
+    }
+
+    /**
+     * Reads an hourly forecast from the given stream, reporting every entry to the listener.
+     *
+     * @param in the raw response body
+     * @param listener where the entries are handed to
+     * @return the "cod" value of the response, or {@link HttpURLConnection#HTTP_OK} if the
+     * response didn't carry one.  Parsing stops as soon as a non-OK code is found.
+     * @throws IOException if the stream could not be read, including an empty body
+     * @throws JSONException if the body isn't a well formed forecast
+     */
+    public static int parse(InputStream in, Listener listener) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, listener);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Anything the reader chokes on is the server's fault, not the network's.
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private static int readForecast(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        boolean listFound = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends the code as a string on success and as a number on some errors
+                int code = Integer.parseInt(reader.nextString());
+                if (code != HttpURLConnection.HTTP_OK) {
+                    return code;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                readEntries(reader, listener);
+                listFound = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!listFound) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+
+    private static void readEntries(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        reader.beginArray();
+        for (int i = 0; reader.hasNext(); i++) {
+            ContentValues hourlyValues = new ContentValues();
+            readEntry(reader, hourlyValues);
+
+            for (String column : REQUIRED_COLUMNS) {
+                if (!hourlyValues.containsKey(column)) {
+                    throw new JSONException("No value for " + column + " in entry " + i);
+                }
+            }
+            listener.onEntry(hourlyValues);
+        }
+        reader.endArray();
+    }
+
+    private static void readEntry(JsonReader reader, ContentValues hourlyValues)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                // OWM times are in seconds
+                hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_TIME,
+                        reader.nextLong() * DateUtils.SECOND_IN_MILLIS);
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_TEMP,
+                                reader.nextDouble());
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_PRESSURE,
+                                reader.nextDouble());
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_HUMIDITY,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_WIND_SPEED,
+                                reader.nextDouble());
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_DEGREES,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Same 1 element array as in the daily forecast
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readWeatherCondition(reader, hourlyValues);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readWeatherCondition(JsonReader reader, ContentValues hourlyValues)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_SHORT_DESC,
+                        reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                hourlyValues.put(WeatherContract.HourlyWeatherEntry.COLUMN_WEATHER_ID,
+                        reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
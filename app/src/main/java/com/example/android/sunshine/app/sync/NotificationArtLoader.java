@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.data.SyncState;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Swaps the remote art into a notification that is already showing the local one.
+ *
+ * The notification goes up right away with the bundled art, and the remote art, if it shows
+ * up within the budget, replaces it quietly.  A notification the user dismissed meanwhile
+ * stays dismissed: {@link NotificationDismissedReceiver} records the dismissal, and the
+ * upgrade is dropped then.  The art is fetched at the size of the large icon and Glide keeps
+ * that resized copy on disk, so the next notification with the same weather usually upgrades
+ * without touching the network.  None of this runs on the thread that posted the
+ * notification, and nothing waits for it.
+ */
+public class NotificationArtLoader {
+    private static final String LOG_TAG = NotificationArtLoader.class.getSimpleName();
+
+    // One notification at a time is all the app ever shows
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private NotificationArtLoader() {
+    }
+
+    /**
+     * Fetches the art in the background and, if it arrives within the budget and the
+     * notification is still showing, posts the notification again with it as the large icon.
+     * The builder must not be touched after this call.
+     *
+     * @param budgetMillis how long to wait for the art before leaving the local one in place
+     */
+    public static void upgradeLargeIcon(Context context, final int notificationId,
+                                        final NotificationCompat.Builder builder,
+                                        final String artUrl, final int width, final int height,
+                                        final long budgetMillis) {
+        if (artUrl == null) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                FutureTarget<Bitmap> target = Glide.with(appContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .diskCacheStrategy(DiskCacheStrategy.RESULT)
+                        .fitCenter()
+                        .into(width, height);
+                Bitmap largeIcon;
+                try {
+                    largeIcon = target.get(budgetMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    Log.d(LOG_TAG, artUrl + " took longer than " + budgetMillis + " ms");
+                    Glide.clear(target);
+                    return;
+                } catch (InterruptedException | ExecutionException e) {
+                    Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+                    Glide.clear(target);
+                    return;
+                }
+
+                // Posting again would bring a dismissed notification back
+                if (SyncState.getLong(appContext.getContentResolver(),
+                        WeatherContract.SyncStateEntry.KEY_NOTIFICATION_DISMISSED, 0) != 0) {
+                    Log.d(LOG_TAG, "Notification dismissed before its art arrived");
+                    return;
+                }
+
+                // Same id, so the local art is replaced instead of a second notification
+                // going up, and without another sound or vibration
+                builder.setLargeIcon(largeIcon).setOnlyAlertOnce(true);
+                NotificationManager notificationManager = (NotificationManager)
+                        appContext.getSystemService(Context.NOTIFICATION_SERVICE);
+                notificationManager.notify(notificationId, builder.build());
+            }
+        });
+    }
+}
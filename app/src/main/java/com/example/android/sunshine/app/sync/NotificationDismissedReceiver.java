@@ -0,0 +1,44 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+
+import com.example.android.sunshine.app.data.SyncState;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Records that the user dismissed the weather notification, so the
+ * {@link NotificationArtLoader} doesn't post it again with its art.
+ */
+public class NotificationDismissedReceiver extends BroadcastReceiver {
+
+    /**
+     * @return the delete intent for the weather notification
+     */
+    public static PendingIntent getIntent(Context context) {
+        return PendingIntent.getBroadcast(context, 0,
+                new Intent(context, NotificationDismissedReceiver.class), 0);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        // The write goes to the provider, which is no place for the main thread
+        final PendingResult result = goAsync();
+        final Context appContext = context.getApplicationContext();
+        new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                try {
+                    SyncState.putLong(appContext.getContentResolver(),
+                            WeatherContract.SyncStateEntry.KEY_NOTIFICATION_DISMISSED, 1);
+                } finally {
+                    result.finish();
+                }
+                return null;
+            }
+        }.execute();
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Keeps the bytes of responses whose download was cut short, by a cancelled sync or a dropped
+ * connection, so the next attempt can ask the server for the rest with a Range request instead
+ * of starting over.
+ *
+ * Each request URI has at most one partial body, kept exactly as it came off the wire, i.e.
+ * still compressed.  The file starts with the request URI, the validator the rest of the body
+ * has to match and the Content-Encoding of the body, followed by the bytes themselves.  Partial
+ * bodies older than {@link #MAX_AGE} are thrown away, since the forecast has moved on by then.
+ */
+public class PartialDownloadStore {
+    private static final String LOG_TAG = PartialDownloadStore.class.getSimpleName();
+
+    private static final String DIRECTORY_NAME = "partial-downloads";
+    private static final String FILE_SUFFIX = ".part";
+    static final long MAX_AGE = 6 * 60 * 60 * 1000;
+
+    private final File mDirectory;
+
+    public PartialDownloadStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * @return the store kept in the app's cache, which the system may clear whenever it likes
+     */
+    public static PartialDownloadStore open(Context context) {
+        return new PartialDownloadStore(new File(context.getCacheDir(), DIRECTORY_NAME));
+    }
+
+    /**
+     * @return the partial body of the request, or null if there is none worth resuming
+     */
+    public Partial get(String requestUri) {
+        File file = getFile(requestUri);
+        if (!file.isFile()) {
+            return null;
+        }
+        if (file.lastModified() < System.currentTimeMillis() - MAX_AGE) {
+            file.delete();
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            CountingInputStream counting = new CountingInputStream(new FileInputStream(file));
+            in = new DataInputStream(counting);
+            String storedUri = in.readUTF();
+            String ifRange = in.readUTF();
+            String contentEncoding = in.readUTF();
+            long headerLength = counting.getCount();
+            if (!storedUri.equals(requestUri)) {
+                // Another request whose URI hashes the same; it gets overwritten soon enough
+                return null;
+            }
+            long length = file.length() - headerLength;
+            if (length <= 0) {
+                file.delete();
+                return null;
+            }
+            return new Partial(file, headerLength, length, ifRange,
+                    contentEncoding.length() == 0 ? null : contentEncoding);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read " + file, e);
+            file.delete();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Only ever read from
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts keeping the body of a response from its first byte, replacing whatever was kept
+     * for the request before.
+     *
+     * @param ifRange the strong ETag or the Last-Modified date of the response, which the server
+     *                has to still match for the rest of the body to be of any use
+     * @return the writer, or null if the store can't be written to
+     */
+    public Writer write(String requestUri, String ifRange, String contentEncoding) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Can't create " + mDirectory);
+            return null;
+        }
+        File file = getFile(requestUri);
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeUTF(requestUri);
+            out.writeUTF(ifRange);
+            out.writeUTF(contentEncoding == null ? "" : contentEncoding);
+            return new Writer(requestUri, file, out);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't write " + file, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Continues a partial body with the bytes of a response that picked up where it ended.
+     *
+     * @return the writer, or null if the store can't be written to
+     */
+    public Writer append(String requestUri, Partial partial) {
+        try {
+            return new Writer(requestUri, partial.mFile, new BufferedOutputStream(
+                    new FileOutputStream(partial.mFile, true)));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't write " + partial.mFile, e);
+            partial.mFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the partial body of the request, once it has been completed or can't be used.
+     */
+    public void remove(String requestUri) {
+        getFile(requestUri).delete();
+    }
+
+    private File getFile(String requestUri) {
+        // Request URIs run longer than file names may; get() checks the URI in the file
+        return new File(mDirectory, Integer.toHexString(requestUri.hashCode()) + FILE_SUFFIX);
+    }
+
+    /**
+     * The start of a response body.
+     */
+    public static class Partial {
+        private final File mFile;
+        private final long mHeaderLength;
+        // Number of bytes of the body that are kept
+        public final long length;
+        public final String ifRange;
+        public final String contentEncoding;
+
+        Partial(File file, long headerLength, long length, String ifRange,
+                String contentEncoding) {
+            mFile = file;
+            mHeaderLength = headerLength;
+            this.length = length;
+            this.ifRange = ifRange;
+            this.contentEncoding = contentEncoding;
+        }
+
+        /**
+         * @return the bytes of the body that are kept, still in their Content-Encoding
+         */
+        public InputStream open() throws IOException {
+            InputStream in = new FileInputStream(mFile);
+            long skipped = 0;
+            while (skipped < mHeaderLength) {
+                long count = in.skip(mHeaderLength - skipped);
+                if (count <= 0) {
+                    in.close();
+                    throw new IOException("Truncated " + mFile);
+                }
+                skipped += count;
+            }
+            return in;
+        }
+    }
+
+    /**
+     * Keeps the bytes of a body as they are downloaded.  Like {@link ForecastBlobCache.Editor},
+     * it never lets a write failure reach the download; a failure only costs the chance to
+     * resume.
+     */
+    public class Writer {
+        private final String mRequestUri;
+        private final File mFile;
+        private final OutputStream mOut;
+        private final OutputStream mStream;
+        private boolean mFailed;
+        private boolean mDone;
+
+        Writer(String requestUri, File file, OutputStream out) {
+            mRequestUri = requestUri;
+            mFile = file;
+            mOut = out;
+            mStream = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int count) {
+                    if (mFailed || mDone) {
+                        return;
+                    }
+                    try {
+                        mOut.write(buffer, offset, count);
+                    } catch (IOException e) {
+                        Log.w(LOG_TAG, "Can't write " + mFile, e);
+                        mFailed = true;
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return the stream the wire bytes of the body are written to
+         */
+        public OutputStream getStream() {
+            return mStream;
+        }
+
+        /**
+         * Keeps what was written so far for the next attempt to resume from.
+         */
+        public void keep() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Can't write " + mFile, e);
+                mFailed = true;
+            }
+            if (mFailed) {
+                remove(mRequestUri);
+            }
+        }
+
+        /**
+         * Drops the partial body, because the body was read completely or turned out to be
+         * of no use.
+         */
+        public void discard() {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                // It's going away anyway
+            }
+            remove(mRequestUri);
+        }
+    }
+}
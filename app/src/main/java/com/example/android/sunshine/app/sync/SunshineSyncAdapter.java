@@ -8,74 +8,50 @@ import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.example.android.sunshine.app.data.SavedLocations;
+import com.example.android.sunshine.app.data.SyncState;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until SyncScheduler adapts it.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // How long the widgets, Muzei and the notification get to take the new forecast
+    private static final long DISPATCH_TIMEOUT = 10 * 1000;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -87,10 +63,25 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    // The engine of the sync in progress, so it can be cancelled from the binder thread
+    private volatile SyncEngine mEngine;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
     }
 
+    @Override
+    public void onSyncCanceled() {
+        // Interrupts the sync thread, which alone doesn't reach the workers blocked on the
+        // network
+        super.onSyncCanceled();
+        SyncEngine engine = mEngine;
+        if (engine != null) {
+            Log.d(LOG_TAG, "Cancelling sync");
+            engine.cancel();
+        }
+    }
+
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
@@ -99,306 +90,185 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
         String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
-
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+        // The preferred location goes first, so it is among the first ones to be fetched.
+        // Instead of always building its query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        ArrayList<SyncEngine.Target> targets = new ArrayList<SyncEngine.Target>();
+        if (Utility.isLocationLatLonAvailable(context)) {
+            targets.add(new SyncEngine.Target(locationQuery,
+                    String.valueOf(Utility.getLocationLatitude(context)),
+                    String.valueOf(Utility.getLocationLongitude(context))));
+        } else {
+            targets.add(new SyncEngine.Target(locationQuery));
+        }
+        for (String savedLocation : SavedLocations.getAll(context.getContentResolver())) {
+            if (!savedLocation.equals(locationQuery)) {
+                targets.add(new SyncEngine.Target(savedLocation));
             }
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        // Skip the sync if the same one just ran, or a periodic one a manual sync will cover
+        SyncRequestCoordinator coordinator = SyncRequestCoordinator.getInstance(context);
+        String inputs = SyncRequestCoordinator.describeInputs(targets);
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        if (!coordinator.onSyncStarting(inputs, manual)) {
+            return;
+        }
+        boolean succeeded = false;
+        try {
+            List<SyncEngine.LocationResult> results = performSync(targets, syncResult);
+            // Only a sync that got through every target, the preferred one fine, makes the
+            // next one with the same inputs redundant
+            succeeded = results.size() == targets.size()
+                    && results.get(0).locationSetting.equals(locationQuery)
+                    && results.get(0).status == LOCATION_STATUS_OK;
+            // Saved locations this sync stored for the first time now have a row to be saved on
+            SavedLocations.savePending(context.getContentResolver());
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            coordinator.onSyncFinished(inputs, manual, succeeded);
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Syncs the targets, the preferred location first, and reports the outcome.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
+    private List<SyncEngine.LocationResult> performSync(List<SyncEngine.Target> targets,
+                                                        SyncResult syncResult) {
+        Context context = getContext();
+        SyncMetrics metrics = new SyncMetrics();
+        long start = metrics.begin(WeatherContract.SyncMetricsEntry.PHASE_TOTAL);
+
+        CircuitBreaker breaker = new CircuitBreaker(context.getContentResolver(),
+                WeatherContract.SyncStateEntry.KEY_FORECAST_BREAKER_PREFIX);
+        SyncEngine engine = new SyncEngine(context, SyncEngine.MAX_WORKERS, metrics, breaker,
+                ForecastBlobCache.open(context));
+        // A cancel that comes before this still interrupts the sync thread, which the engine
+        // notices while it waits for its workers
+        mEngine = engine;
+        List<SyncEngine.LocationResult> results;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
-            }
-
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+            results = engine.sync(targets);
+        } finally {
+            mEngine = null;
+        }
 
-                cVVector.add(weatherValues);
+        int inserted = 0;
+        int updated = 0;
+        for (SyncEngine.LocationResult result : results) {
+            inserted += result.inserted;
+            updated += result.updated;
+            if (result.status == LOCATION_STATUS_SERVER_DOWN) {
+                // A soft error, so the sync manager retries with its own backoff
+                syncResult.stats.numIoExceptions++;
+            } else if (result.status == LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
             }
+        }
+        syncResult.stats.numInserts += inserted;
+        syncResult.stats.numUpdates += updated;
+        long retryTime = breaker.getRetryTime();
+        if (retryTime > System.currentTimeMillis()) {
+            // No point in syncing before the breaker lets a request through
+            syncResult.delayUntil = retryTime / 1000;
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        // The snapshot, widgets, Muzei and the notification only show the preferred location.
+        // A cancelled sync may have no result for it; if it does, its forecast was stored and
+        // has to be passed on, as the next sync will find it unchanged.
+        boolean preferredSynced = !results.isEmpty()
+                && results.get(0).locationSetting.equals(targets.get(0).locationSetting);
+        if (preferredSynced && results.get(0).status == LOCATION_STATUS_OK) {
+            SyncEngine.LocationResult preferred = results.get(0);
+            // A new day also leaves the snapshot behind, even if the forecast didn't change
+            if (preferred.hasChanges()
+                    || !ForecastSnapshot.isCurrent(context, preferred.locationSetting)) {
+                ForecastSnapshot.update(context, preferred.locationSetting);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         }
+        if (preferredSynced && results.get(0).hasChanges()) {
+            long notifyStart = metrics.begin(WeatherContract.SyncMetricsEntry.PHASE_NOTIFY);
+            // Read once here and handed over, instead of every consumer querying it again
+            ForecastResult forecast =
+                    ForecastResult.query(context, results.get(0).locationSetting);
+            createDispatcher(context)
+                    .register(new SyncDispatcher.Consumer() {
+                        @Override
+                        public String getName() {
+                            return "notification";
+                        }
+
+                        @Override
+                        public void onForecast(ForecastResult forecast) {
+                            notifyWeather(forecast);
+                        }
+                    })
+                    .dispatch(forecast);
+            metrics.end(null, WeatherContract.SyncMetricsEntry.PHASE_NOTIFY, notifyStart, 0, 0);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " of " + targets.size()
+                + " locations synced, " + inserted + " Inserted, " + updated + " Updated");
+        metrics.end(null, WeatherContract.SyncMetricsEntry.PHASE_TOTAL, start, 0,
+                inserted + updated);
+        metrics.save(context.getContentResolver());
+
+        SyncScheduler.onSyncFinished(context, preferredSynced ? results.get(0) : null);
+        return results;
     }
 
-    private void updateWidgets() {
-        Context context = getContext();
+    /**
+     * Creates a dispatcher for the consumers that follow the preferred location wherever its
+     * forecast changed: the widgets and Muzei.  The forecast travels along in the intents'
+     * extras, see {@link ForecastResult#fromBundle}.
+     */
+    static SyncDispatcher createDispatcher(final Context context) {
+        return new SyncDispatcher(DISPATCH_TIMEOUT)
+                .register(new SyncDispatcher.Consumer() {
+                    @Override
+                    public String getName() {
+                        return "widgets";
+                    }
+
+                    @Override
+                    public void onForecast(ForecastResult forecast) {
+                        updateWidgets(context, forecast);
+                    }
+                })
+                .register(new SyncDispatcher.Consumer() {
+                    @Override
+                    public String getName() {
+                        return "muzei";
+                    }
+
+                    @Override
+                    public void onForecast(ForecastResult forecast) {
+                        updateMuzei(context, forecast);
+                    }
+                });
+    }
+
+    private static void updateWidgets(Context context, ForecastResult forecast) {
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
+                .setPackage(context.getPackageName())
+                .putExtras(forecast.toBundle());
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private static void updateMuzei(Context context, ForecastResult forecast) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
             context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+                    .setClass(context, WeatherMuzeiSource.class)
+                    .putExtras(forecast.toBundle()));
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(ForecastResult forecast) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -408,23 +278,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
         if ( displayNotifications ) {
 
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
+            long lastSync = SyncState.getLong(context.getContentResolver(),
+                    WeatherContract.SyncStateEntry.KEY_LAST_NOTIFICATION, 0);
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+                ForecastResult.Day today = forecast.getToday();
 
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != null && today.date
+                        == WeatherContract.normalizeDate(System.currentTimeMillis())) {
+                    int weatherId = today.weatherId;
+                    double high = today.high;
+                    double low = today.low;
+                    String desc = today.shortDesc;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -442,19 +308,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                             ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+                    // Start with the bundled art; the remote art replaces it once it's here
+                    Bitmap largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -489,72 +344,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                                     PendingIntent.FLAG_UPDATE_CURRENT
                             );
                     mBuilder.setContentIntent(resultPendingIntent);
+                    // Tells the art upgrade not to bring the notification back once dismissed
+                    mBuilder.setDeleteIntent(NotificationDismissedReceiver.getIntent(context));
+
+                    //refreshing last sync, and marking the new notification as showing before
+                    //it goes up, so a quick dismissal can't be overwritten
+                    Map<String, Long> state = new HashMap<String, Long>(2);
+                    state.put(WeatherContract.SyncStateEntry.KEY_LAST_NOTIFICATION,
+                            System.currentTimeMillis());
+                    state.put(WeatherContract.SyncStateEntry.KEY_NOTIFICATION_DISMISSED, 0L);
+                    SyncState.putAll(context.getContentResolver(), state);
 
                     NotificationManager mNotificationManager =
                             (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
                     // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
                     mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
+                    // Fetched on the loader's own thread, so neither the dispatch nor the sync
+                    // waits for it
+                    NotificationArtLoader.upgradeLargeIcon(context, WEATHER_NOTIFICATION_ID,
+                            mBuilder, artUrl, largeIconWidth, largeIconHeight,
+                            resources.getInteger(R.integer.notification_art_budget));
                 }
-                cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -575,10 +389,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Requests arriving in quick
+     * succession are coalesced into a single sync.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        SyncRequestCoordinator.getInstance(context).requestSync();
+    }
+
+    /**
+     * Asks the sync manager for an expedited sync, bypassing the SyncRequestCoordinator.
+     * @param context The context used to access the account service
+     */
+    static void requestExpeditedSync(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -645,17 +468,4 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
     }
-
-    /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
-     * @param c Context to get the PreferenceManager from.
-     * @param locationStatus The IntDef value to set
-     */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
-        spe.commit();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,13 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown where a sync stops early because it was cancelled, so the work in progress is
+ * abandoned rather than mistaken for a failing server.
+ */
+public class SyncCancelledException extends InterruptedIOException {
+    public SyncCancelledException() {
+        super("Sync cancelled");
+    }
+}
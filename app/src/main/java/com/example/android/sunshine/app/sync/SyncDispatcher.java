@@ -0,0 +1,135 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Hands a {@link ForecastResult} to every registered consumer once a sync is over.
+ *
+ * The consumers run at the same time, each on a thread of a pool shared by every dispatch, so
+ * a slow one doesn't hold the others back and no threads are started per sync.  One that
+ * throws is logged and doesn't keep the others from running, and one still running when its
+ * time, counted from its own start, is up is interrupted and left behind.  A dispatch
+ * therefore never takes much longer than the timeout, whatever the consumers do.
+ */
+public class SyncDispatcher {
+    private static final String LOG_TAG = SyncDispatcher.class.getSimpleName();
+
+    /**
+     * Something that shows the forecast outside the app.
+     */
+    public interface Consumer {
+        /**
+         * @return a name for the logs
+         */
+        String getName();
+
+        /**
+         * Called on a thread of its own.  Blocking is fine, but should stop when interrupted.
+         */
+        void onForecast(ForecastResult forecast) throws Exception;
+    }
+
+    // Idle threads die off after a minute, so the pool costs nothing between syncs
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    /*
+        Runs a consumer and remembers when it started, which is when its time starts running.
+     */
+    private static class Task implements Callable<Void> {
+        final Consumer consumer;
+        final ForecastResult forecast;
+        final CountDownLatch started = new CountDownLatch(1);
+        volatile long startTime;
+
+        Task(Consumer consumer, ForecastResult forecast) {
+            this.consumer = consumer;
+            this.forecast = forecast;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            startTime = SystemClock.elapsedRealtime();
+            started.countDown();
+            consumer.onForecast(forecast);
+            return null;
+        }
+    }
+
+    private final List<Consumer> mConsumers = new ArrayList<Consumer>();
+    private final long mTimeoutMillis;
+
+    /**
+     * @param timeoutMillis how long every consumer gets, counted from when it starts
+     */
+    public SyncDispatcher(long timeoutMillis) {
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    public SyncDispatcher register(Consumer consumer) {
+        mConsumers.add(consumer);
+        return this;
+    }
+
+    /**
+     * Hands the forecast to every consumer and waits until they are done or out of time.
+     *
+     * @return the number of consumers that finished without an error
+     */
+    public int dispatch(final ForecastResult forecast) {
+        if (mConsumers.isEmpty()) {
+            return 0;
+        }
+
+        List<Task> tasks = new ArrayList<Task>(mConsumers.size());
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(mConsumers.size());
+        for (Consumer consumer : mConsumers) {
+            Task task = new Task(consumer, forecast);
+            tasks.add(task);
+            futures.add(sExecutor.submit(task));
+        }
+
+        int succeeded = 0;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Task task = tasks.get(i);
+                String name = task.consumer.getName();
+                try {
+                    // One that doesn't even start in time counts as timed out
+                    if (!task.started.await(mTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                        throw new TimeoutException();
+                    }
+                    long remaining = Math.max(
+                            task.startTime + mTimeoutMillis - SystemClock.elapsedRealtime(), 0);
+                    futures.get(i).get(remaining, TimeUnit.MILLISECONDS);
+                    succeeded++;
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error handing the forecast to " + name, e.getCause());
+                } catch (TimeoutException e) {
+                    Log.w(LOG_TAG, name + " took longer than " + mTimeoutMillis + " ms");
+                } catch (InterruptedException e) {
+                    // The sync was cancelled; whoever hasn't finished is interrupted below.
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            // Interrupts whoever is left behind; a no-op for the ones that are done
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return succeeded;
+    }
+}
@@ -0,0 +1,886 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.ForecastRows;
+import com.example.android.sunshine.app.data.LocationIdCache;
+import com.example.android.sunshine.app.data.SyncState;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Syncs the forecasts of several locations at once.
+ *
+ * Every location is downloaded and parsed on one of a small, bounded pool of workers, so the
+ * network round trips of different locations overlap instead of adding up.  A location's
+ * forecast is kept in memory until it has been read completely and then handed to the provider
+ * in a single transaction, so the database sees one short write per location rather than a
+ * stream of small ones competing with the other workers.
+ *
+ * OpenWeatherMap's group query, which would fetch many cities in one request, only serves
+ * current conditions, not daily forecasts, so every location still takes a request of its own.
+ * Those requests are made cheap instead: a location the server resolved before is asked for by
+ * its city ID, loaded for all targets in one query, rather than by its location setting, and
+ * the workers' connections are kept alive from one location to the next.  Locations without
+ * a city ID yet are asked for by their location setting or coordinates, as before.
+ *
+ * A sync can be cancelled from any thread.  Downloads stop at their next chunk, and a forecast
+ * that was downloaded or parsed but not stored yet is dropped.  A store that already started
+ * runs to the end: it is a single transaction, so a location either gets its whole new
+ * forecast or keeps its old one.  Bodies that were cut short are kept by the fetcher, so the
+ * next sync only downloads the rest of them.
+ */
+public class SyncEngine {
+    private static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    // More than a few concurrent requests only queue up on a mobile link
+    public static final int MAX_WORKERS = 3;
+
+    static final String SERVER_URL = "http://api.openweathermap.org/data/2.5/";
+    private static final String FORECAST_PATH = "forecast/daily?";
+    // 5 days in 3 hour steps
+    private static final String HOURLY_FORECAST_PATH = "forecast?";
+
+    // Only ever pointed elsewhere by benchmarks and tests, to run syncs against a stand-in
+    static volatile String sServerUrl = SERVER_URL;
+    private static final String QUERY_PARAM = "q";
+    private static final String ID_PARAM = "id";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    static final int NUM_DAYS = 14;
+
+    /**
+     * A location to sync.
+     */
+    public static class Target {
+        public final String locationSetting;
+        // Coordinates from the Place Picker, or null to query by the location setting
+        public final String latitude;
+        public final String longitude;
+
+        public Target(String locationSetting) {
+            this(locationSetting, null, null);
+        }
+
+        public Target(String locationSetting, String latitude, String longitude) {
+            this.locationSetting = locationSetting;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    /**
+     * How syncing one location went.
+     */
+    public static class LocationResult {
+        public final String locationSetting;
+        public final @SunshineSyncAdapter.LocationStatus int status;
+        // Number of days added and days changed, both 0 if the stored forecast was current
+        public final int inserted;
+        public final int updated;
+
+        LocationResult(String locationSetting, @SunshineSyncAdapter.LocationStatus int status) {
+            this(locationSetting, status, 0, 0);
+        }
+
+        LocationResult(String locationSetting, @SunshineSyncAdapter.LocationStatus int status,
+                       int inserted, int updated) {
+            this.locationSetting = locationSetting;
+            this.status = status;
+            this.inserted = inserted;
+            this.updated = updated;
+        }
+
+        /**
+         * @return true if the stored forecast of the location changed
+         */
+        public boolean hasChanges() {
+            return inserted > 0 || updated > 0;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+    private final ForecastFetcher mFetcher;
+    private final int mMaxWorkers;
+    private final SyncMetrics mMetrics;
+    private final CircuitBreaker mBreaker;
+    private final ForecastBlobCache mCache;
+
+    // OWM's city IDs of the targets that have one, by location setting
+    private Map<String, Long> mCityIds = Collections.emptyMap();
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+    private final Set<ForecastFetcher.Download> mOpenDownloads =
+            Collections.synchronizedSet(new HashSet<ForecastFetcher.Download>());
+
+    /**
+     * @param metrics where the phases of every location are recorded
+     * @param breaker guards the forecast server; shared by all locations
+     * @param cache keeps the last good response of every location
+     */
+    public SyncEngine(Context context, int maxWorkers, SyncMetrics metrics,
+                      CircuitBreaker breaker, ForecastBlobCache cache) {
+        mContentResolver = context.getContentResolver();
+        mFetcher = new ForecastFetcher(new ValidatorStore(mContentResolver),
+                PartialDownloadStore.open(context));
+        mMaxWorkers = maxWorkers;
+        mMetrics = metrics;
+        mBreaker = breaker;
+        mCache = cache;
+    }
+
+    /**
+     * Stops the sync as soon as the work in progress allows.  Safe to call from any thread.
+     */
+    public void cancel() {
+        if (mCancelled.getAndSet(true)) {
+            return;
+        }
+        // Unblocks workers waiting on the network
+        synchronized (mOpenDownloads) {
+            for (ForecastFetcher.Download download : mOpenDownloads) {
+                download.cancel();
+            }
+        }
+    }
+
+    /**
+     * @return true if the sync was cancelled, in which case some targets may have no result
+     */
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    /**
+     * Syncs every target and records the status of each one once all of them are done.
+     * Blocks until then, so only call this from the sync thread.
+     *
+     * @return one result per target, in the order of the targets, unless the sync was
+     * cancelled; locations that didn't finish by then have none
+     */
+    public List<LocationResult> sync(List<Target> targets) {
+        List<LocationResult> results = new ArrayList<LocationResult>(targets.size());
+        if (targets.isEmpty()) {
+            return results;
+        }
+
+        // Handed to the workers by submit(), which publishes it safely
+        mCityIds = loadCityIds(targets);
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(mMaxWorkers, targets.size()));
+        try {
+            List<Future<LocationResult>> futures =
+                    new ArrayList<Future<LocationResult>>(targets.size());
+            for (final Target target : targets) {
+                futures.add(executor.submit(new Callable<LocationResult>() {
+                    @Override
+                    public LocationResult call() {
+                        return syncLocation(target);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                String locationSetting = targets.get(i).locationSetting;
+                try {
+                    LocationResult result = futures.get(i).get();
+                    if (result != null) {
+                        results.add(result);
+                    }
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + locationSetting, e.getCause());
+                    results.add(new LocationResult(locationSetting,
+                            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN));
+                } catch (InterruptedException e) {
+                    // The sync was cancelled; whatever hasn't finished yet is dropped below.
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        saveLocationStatuses(results);
+        checkpoint();
+        return results;
+    }
+
+    /**
+     * Folds what the sync wrote back into the database now that the writes are done, so no
+     * commit of the next sync has to.
+     */
+    private void checkpoint() {
+        Bundle result = mContentResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_CHECKPOINT, null, null);
+        if (result != null) {
+            int framesLeft = result.getInt(WeatherContract.EXTRA_FRAMES_LEFT);
+            if (framesLeft > 0) {
+                Log.d(LOG_TAG, framesLeft + " log frames left behind by readers");
+            }
+        }
+    }
+
+    /**
+     * Records the status of every location that was synced, and the circuit breaker's state
+     * they led to, all in one transaction.
+     */
+    private void saveLocationStatuses(List<LocationResult> results) {
+        Map<String, Long> statuses = new LinkedHashMap<String, Long>(results.size() + 3);
+        for (LocationResult result : results) {
+            statuses.put(WeatherContract.SyncStateEntry.buildLocationStatusKey(
+                    result.locationSetting), (long) result.status);
+        }
+        mBreaker.saveTo(statuses);
+        SyncState.putAll(mContentResolver, statuses);
+    }
+
+    /**
+     * Syncs one location, unless the circuit breaker says the server needs a rest.  Its hourly
+     * forecast follows once the daily one is in.  Runs on a worker thread.
+     *
+     * @return the result, or null if the sync was cancelled before the location was done
+     */
+    LocationResult syncLocation(Target target) {
+        String locationSetting = target.locationSetting;
+        LocationResult result = null;
+        if (isCancelled()) {
+            return null;
+        }
+        if (!mBreaker.allowRequest()) {
+            Log.d(LOG_TAG, locationSetting + ": skipped, the server failed too often");
+            result = new LocationResult(locationSetting,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        } else {
+            try {
+                result = fetchLocation(target);
+            } finally {
+                // An unknown location is a proper answer; anything else that isn't OK means
+                // the server is in trouble.  So does a crash, which leaves no result.
+                if (result != null && (result.status == SunshineSyncAdapter.LOCATION_STATUS_OK
+                        || result.status == SunshineSyncAdapter.LOCATION_STATUS_INVALID)) {
+                    mBreaker.onSuccess();
+                } else if (!isCancelled()) {
+                    // Being cancelled says nothing about the server
+                    mBreaker.onFailure();
+                }
+            }
+            if (result == null) {
+                return null;
+            }
+        }
+
+        // The status is about the daily forecast; the hourly one only comes on top of it
+        if (result.status == SunshineSyncAdapter.LOCATION_STATUS_OK && !isCancelled()
+                && mBreaker.allowRequest()) {
+            if (fetchHourly(target)) {
+                mBreaker.onSuccess();
+            } else if (!isCancelled()) {
+                mBreaker.onFailure();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Downloads, parses and stores the forecast of one location.
+     *
+     * @return the result, or null if the sync was cancelled first
+     */
+    private LocationResult fetchLocation(Target target) {
+        String locationSetting = target.locationSetting;
+        LocationResult result = null;
+        long start = mMetrics.begin(WeatherContract.SyncMetricsEntry.PHASE_TOTAL);
+
+        ForecastFetcher.Download download = null;
+        ForecastBlobCache.Editor cacheEditor = null;
+        try {
+            // Validators from the last sync are only replayed while we still have the
+            // forecast they describe.
+            download = openDownload(
+                    buildForecastUri(sServerUrl + FORECAST_PATH, target, NUM_DAYS).toString(),
+                    hasCurrentForecast(locationSetting));
+            mMetrics.record(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_CONNECT,
+                    download.getConnectNanos(), 0, 0);
+            mMetrics.record(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_FIRST_BYTE,
+                    download.getFirstByteNanos(), 0, 0);
+
+            if (download.isNotModified()) {
+                // The forecast we have is still the latest one, nothing to parse or store.
+                Log.d(LOG_TAG, locationSetting + ": forecast not modified");
+                download.commit();
+                mCache.touch(locationSetting);
+                result = new LocationResult(locationSetting,
+                        SunshineSyncAdapter.LOCATION_STATUS_OK);
+            } else {
+                int julianStartDay = getJulianToday();
+                cacheEditor = mCache.edit(locationSetting, julianStartDay);
+                if (cacheEditor != null) {
+                    download.copyBodyTo(cacheEditor.getStream());
+                }
+                result = readForecast(download, locationSetting, julianStartDay);
+                if (cacheEditor != null
+                        && result.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                    // The body has been read to the end by now
+                    cacheEditor.commit();
+                }
+            }
+        } catch (SyncCancelledException e) {
+            // No result, so the location keeps the status it had
+            Log.d(LOG_TAG, locationSetting + ": cancelled");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error syncing " + locationSetting, e);
+            // If the code didn't successfully get the weather data, there's no point in
+            // attempting to parse it.  This also covers an empty response body.
+            result = new LocationResult(locationSetting,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            result = new LocationResult(locationSetting,
+                    SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID);
+        } finally {
+            if (cacheEditor != null) {
+                cacheEditor.abort();
+            }
+            long bytes = 0;
+            if (download != null) {
+                bytes = download.getCompressedBytes();
+                Log.d(LOG_TAG, locationSetting + ": downloaded " + bytes + " bytes, "
+                        + download.getDecompressedBytes() + " bytes decompressed"
+                        + (download.isResumed() ? ", resumed" : ""));
+                closeDownload(download);
+            }
+            mMetrics.end(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_TOTAL, start,
+                    bytes, result == null ? 0 : result.inserted + result.updated);
+        }
+        return result;
+    }
+
+    /**
+     * Downloads, parses and stores the 3 hour forecast of a location whose daily forecast was
+     * just synced.  The hourly forecast is an extra, so how this goes doesn't change the
+     * status of the location.
+     *
+     * @return false if the server failed to answer properly
+     */
+    private boolean fetchHourly(Target target) {
+        String locationSetting = target.locationSetting;
+        long locationId = getLocationId(locationSetting);
+        if (locationId == -1) {
+            return true;
+        }
+
+        int rows = 0;
+        long start = mMetrics.begin(WeatherContract.SyncMetricsEntry.PHASE_HOURLY);
+        ForecastFetcher.Download download = null;
+        try {
+            download = openDownload(
+                    buildForecastUri(sServerUrl + HOURLY_FORECAST_PATH, target, 0).toString(),
+                    hasCurrentHourlyForecast(locationId));
+            if (download.isNotModified()) {
+                download.commit();
+                return true;
+            }
+
+            HourlyCollector hourly = new HourlyCollector();
+            int code = HourlyForecastParser.parse(download.getBody(), hourly);
+            if (code != HttpURLConnection.HTTP_OK) {
+                return code == HttpURLConnection.HTTP_NOT_FOUND;
+            }
+            if (download.isBodyUnchanged()) {
+                download.commit();
+                return true;
+            }
+            checkCancelled();
+
+            Bundle extras = new Bundle();
+            extras.putLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID, locationId);
+            extras.putLong(WeatherContract.HourlyWeatherEntry.EXTRA_EXPIRED_TIME,
+                    System.currentTimeMillis() - WeatherContract.HourlyWeatherEntry.RETENTION);
+            extras.putParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES,
+                    hourly.mEntries.toArray(new ContentValues[hourly.mEntries.size()]));
+            Bundle result = mContentResolver.call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.HourlyWeatherEntry.METHOD_STORE_HOURLY_FORECAST, null, extras);
+            if (result != null) {
+                rows = result.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED);
+                Log.d(LOG_TAG, locationSetting + ": " + rows + " hourly entries Inserted, "
+                        + result.getInt(WeatherContract.WeatherEntry.EXTRA_DELETED)
+                        + " Deleted");
+            }
+            download.commit();
+            return true;
+        } catch (SyncCancelledException e) {
+            Log.d(LOG_TAG, locationSetting + ": hourly forecast cancelled");
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error syncing the hourly forecast of " + locationSetting, e);
+            return false;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return false;
+        } finally {
+            long bytes = 0;
+            if (download != null) {
+                bytes = download.getCompressedBytes();
+                closeDownload(download);
+            }
+            mMetrics.end(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_HOURLY, start,
+                    bytes, rows);
+        }
+    }
+
+    /**
+     * Parses the forecast and stores it in one transaction, unless it is byte for byte the one
+     * stored last time.
+     *
+     * @return the outcome for the location, which tells a missing city from a failing server
+     */
+    private LocationResult readForecast(ForecastFetcher.Download download, String locationSetting,
+                                        int julianStartDay)
+            throws IOException, JSONException {
+        ForecastCollector forecast = new ForecastCollector();
+        int code;
+        long start = mMetrics.begin(WeatherContract.SyncMetricsEntry.PHASE_PARSE);
+        try {
+            code = ForecastStreamParser.parse(download.getBody(), julianStartDay, forecast);
+        } finally {
+            mMetrics.end(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_PARSE, start,
+                    download.getCompressedBytes(), forecast.mDays.size());
+        }
+
+        // do we have an error?
+        switch (code) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return new LocationResult(locationSetting,
+                        SunshineSyncAdapter.LOCATION_STATUS_INVALID);
+            default:
+                return new LocationResult(locationSetting,
+                        SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+        }
+
+        if (download.isBodyUnchanged()) {
+            // Same bytes as last time, so the database already holds this forecast.
+            Log.d(LOG_TAG, locationSetting + ": forecast unchanged");
+            download.commit();
+            return new LocationResult(locationSetting, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        }
+
+        // Last chance to back out; once the transaction starts it runs to the end
+        checkCancelled();
+        LocationResult result = storeForecast(locationSetting, forecast, julianStartDay);
+        download.commit();
+        return result;
+    }
+
+    /**
+     * Stores a parsed forecast in one transaction, along with its location.  Days before
+     * julianToday are dropped.
+     */
+    private LocationResult storeForecast(String locationSetting, ForecastCollector forecast,
+                                         int julianToday) {
+        long start = mMetrics.begin(WeatherContract.SyncMetricsEntry.PHASE_ADD_LOCATION);
+        long locationId;
+        try {
+            locationId = addLocation(locationSetting, forecast.mCityId,
+                    forecast.mCityName, forecast.mLatitude, forecast.mLongitude);
+        } finally {
+            mMetrics.end(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_ADD_LOCATION,
+                    start, 0, 1);
+        }
+
+        long expiredDate = new Time().setJulianDay(julianToday - 1);
+        int inserted = 0;
+        int updated = 0;
+        int deleted = 0;
+        start = mMetrics.begin(WeatherContract.SyncMetricsEntry.PHASE_STORE);
+        try {
+            Bundle result = storeDays(locationId, expiredDate, forecast.mDays);
+            if (result != null) {
+                inserted = result.getInt(WeatherContract.WeatherEntry.EXTRA_INSERTED);
+                updated = result.getInt(WeatherContract.WeatherEntry.EXTRA_UPDATED);
+                deleted = result.getInt(WeatherContract.WeatherEntry.EXTRA_DELETED);
+                Log.d(LOG_TAG, locationSetting + ": " + inserted + " Inserted, " + updated
+                        + " Updated, "
+                        + result.getInt(WeatherContract.WeatherEntry.EXTRA_UNCHANGED)
+                        + " Unchanged, " + deleted + " Deleted");
+            }
+        } finally {
+            mMetrics.end(locationSetting, WeatherContract.SyncMetricsEntry.PHASE_STORE, start,
+                    0, inserted + updated + deleted);
+        }
+        return new LocationResult(locationSetting, SunshineSyncAdapter.LOCATION_STATUS_OK,
+                inserted, updated);
+    }
+
+    /**
+     * Hands the days straight to the provider when it runs in this process, as it always does
+     * outside of tests, so they are bound into its compiled statements from the primitive rows.
+     * Otherwise they go through the provider call as ContentValues.
+     */
+    private Bundle storeDays(long locationId, long expiredDate, ForecastRows days) {
+        ContentProviderClient client = mContentResolver.acquireContentProviderClient(
+                WeatherContract.CONTENT_AUTHORITY);
+        if (client != null) {
+            try {
+                ContentProvider provider = client.getLocalContentProvider();
+                if (provider instanceof WeatherProvider) {
+                    return ((WeatherProvider) provider).storeForecast(locationId, expiredDate,
+                            days);
+                }
+            } finally {
+                client.release();
+            }
+        }
+
+        ContentValues[] values = new ContentValues[days.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = days.toContentValues(i);
+        }
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID, locationId);
+        extras.putLong(WeatherContract.WeatherEntry.EXTRA_EXPIRED_DATE, expiredDate);
+        extras.putParcelableArray(WeatherContract.WeatherEntry.EXTRA_VALUES, values);
+        return mContentResolver.call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.WeatherEntry.METHOD_STORE_FORECAST, null, extras);
+    }
+
+    /**
+     * Opens a download that cancel() can reach.
+     */
+    private ForecastFetcher.Download openDownload(String requestUri, boolean conditional)
+            throws IOException {
+        checkCancelled();
+        ForecastFetcher.Download download = mFetcher.open(requestUri, conditional);
+        mOpenDownloads.add(download);
+        // cancel() may have gone through the open downloads while this one was opening
+        if (isCancelled()) {
+            download.cancel();
+        }
+        return download;
+    }
+
+    private void closeDownload(ForecastFetcher.Download download) {
+        mOpenDownloads.remove(download);
+        download.close();
+    }
+
+    /**
+     * @throws SyncCancelledException if the sync was cancelled or the worker interrupted
+     */
+    private void checkCancelled() throws SyncCancelledException {
+        if (isCancelled() || Thread.currentThread().isInterrupted()) {
+            throw new SyncCancelledException();
+        }
+    }
+
+    /**
+     * Rebuilds the stored forecasts from the cached responses, without going to the network.
+     * Locations that still have today's forecast are left alone, as are responses that hold
+     * nothing but past days.  Blocks, so only call this from a background thread.
+     *
+     * @return the results of the locations that were restored
+     */
+    public List<LocationResult> reingest() {
+        List<LocationResult> results = new ArrayList<LocationResult>();
+        int julianToday = getJulianToday();
+        for (String locationSetting : mCache.getLocationSettings()) {
+            if (hasCurrentForecast(locationSetting)) {
+                continue;
+            }
+            ForecastBlobCache.Entry entry = null;
+            try {
+                entry = mCache.get(locationSetting);
+                if (entry == null || entry.julianStartDay + NUM_DAYS <= julianToday) {
+                    continue;
+                }
+                ForecastCollector forecast = new ForecastCollector();
+                int code = ForecastStreamParser.parse(entry.getBody(), entry.julianStartDay,
+                        forecast);
+                if (code != HttpURLConnection.HTTP_OK) {
+                    continue;
+                }
+                results.add(storeForecast(locationSetting, forecast, julianToday));
+                Log.d(LOG_TAG, locationSetting + ": restored from the cache");
+            } catch (IOException | JSONException e) {
+                Log.e(LOG_TAG, "Error restoring " + locationSetting, e);
+            } finally {
+                if (entry != null) {
+                    entry.close();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return the Julian day of the first entry of a forecast requested now
+     */
+    private static int getJulianToday() {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+
+    /**
+     * @param days the number of days to ask for, or 0 to leave it to the server
+     */
+    private Uri buildForecastUri(String baseUrl, Target target, int days) {
+        // Construct the URL for the OpenWeatherMap query
+        // Possible parameters are avaiable at OWM's forecast API page, at
+        // http://openweathermap.org/API#forecast
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+
+        // A location picked with the Place Picker is queried by its coordinates, since the
+        // weather service may not understand the address it comes with.  Any other location
+        // the server resolved before is queried by the ID it gave the city.
+        Long cityId = mCityIds.get(target.locationSetting);
+        if (target.latitude != null && target.longitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, target.latitude)
+                    .appendQueryParameter(LON_PARAM, target.longitude);
+        } else if (cityId != null) {
+            uriBuilder.appendQueryParameter(ID_PARAM, Long.toString(cityId));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, target.locationSetting);
+        }
+
+        uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS);
+        if (days > 0) {
+            uriBuilder.appendQueryParameter(DAYS_PARAM, Integer.toString(days));
+        }
+        return uriBuilder.appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * @return true if the database still holds today's forecast for the location, which is
+     * what any stored response validators for it vouch for
+     */
+    private boolean hasCurrentForecast(String locationSetting) {
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = mContentResolver.query(weatherUri,
+                new String[] {WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
+
+    /**
+     * @return true if the database still holds hourly entries for the location that haven't
+     * gone by yet
+     */
+    private boolean hasCurrentHourlyForecast(long locationId) {
+        Cursor cursor = mContentResolver.query(WeatherContract.HourlyWeatherEntry.CONTENT_URI,
+                new String[] {WeatherContract.HourlyWeatherEntry._ID},
+                WeatherContract.HourlyWeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherContract.HourlyWeatherEntry.COLUMN_TIME + " >= ?",
+                new String[] {Long.toString(locationId),
+                        Long.toString(System.currentTimeMillis())},
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
+
+    /**
+     * @return the city IDs the server gave the locations of the targets, for those it did.
+     * The ones the provider resolved in this process come from the LocationIdCache, and only
+     * the rest are queried.
+     */
+    private Map<String, Long> loadCityIds(List<Target> targets) {
+        Map<String, Long> cityIds = new HashMap<String, Long>();
+        List<String> missing = new ArrayList<String>();
+        for (Target target : targets) {
+            long cityId = LocationIdCache.getCityId(target.locationSetting);
+            if (cityId != 0) {
+                cityIds.put(target.locationSetting, cityId);
+            } else {
+                missing.add(target.locationSetting);
+            }
+        }
+        if (missing.isEmpty()) {
+            return cityIds;
+        }
+
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_CITY_ID + " != 0 AND "
+                        + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " IN (");
+        String[] selectionArgs = missing.toArray(new String[missing.size()]);
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ", ?");
+        }
+        selection.append(')');
+        Cursor cursor = mContentResolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        WeatherContract.LocationEntry.COLUMN_CITY_ID},
+                selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            return cityIds;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                cityIds.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return cityIds;
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it isn't stored
+     */
+    private long getLocationId(String locationSetting) {
+        // Usually resolved by addLocation a moment ago
+        long locationId = LocationIdCache.getId(locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
+        Cursor cursor = mContentResolver.query(WeatherContract.LocationEntry.CONTENT_URI,
+                new String[] {WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to handle insertion of a new location in the weather database.  A location
+     * that is already there, such as a saved location that was never synced, gets its city and
+     * coordinates refreshed if the server reports different ones.
+     *
+     * A location that was resolved before in this process, and hasn't changed since, costs
+     * nothing; any other goes to the provider's upsert, which costs one statement when the
+     * location is already stored as it is.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityId OWM's ID of the city, or 0 to keep whatever is stored
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the row ID of the added location.
+     */
+    long addLocation(String locationSetting, long cityId, String cityName,
+                     double lat, double lon) {
+        long locationId = LocationIdCache.getId(locationSetting, cityId, cityName, lat, lon);
+        if (locationId != -1) {
+            return locationId;
+        }
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        if (cityId != 0) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_ID, cityId);
+        }
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        Uri locationUri = mContentResolver.insert(WeatherContract.LocationEntry.UPSERT_URI,
+                locationValues);
+
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+        return ContentUris.parseId(locationUri);
+    }
+
+    /**
+     * Holds on to one location's forecast while it is being parsed.
+     */
+    private static class ForecastCollector implements ForecastStreamParser.Listener {
+        final ForecastRows mDays = new ForecastRows(NUM_DAYS);
+        long mCityId;
+        String mCityName;
+        double mLatitude;
+        double mLongitude;
+
+        @Override
+        public void onCity(long cityId, String cityName, double lat, double lon) {
+            mCityId = cityId;
+            mCityName = cityName;
+            mLatitude = lat;
+            mLongitude = lon;
+        }
+
+        @Override
+        public void onDay(long date, long weatherId, String shortDesc, double minTemp,
+                          double maxTemp, double humidity, double pressure, double windSpeed,
+                          double degrees) {
+            mDays.add(date, weatherId, shortDesc, minTemp, maxTemp, humidity, pressure,
+                    windSpeed, degrees);
+        }
+    }
+
+    /**
+     * Holds on to one location's hourly forecast while it is being parsed.
+     */
+    private static class HourlyCollector implements HourlyForecastParser.Listener {
+        // 5 days of 3 hour steps
+        final ArrayList<ContentValues> mEntries = new ArrayList<ContentValues>(40);
+
+        @Override
+        public void onEntry(ContentValues hourlyValues) {
+            mEntries.add(hourlyValues);
+        }
+    }
+}
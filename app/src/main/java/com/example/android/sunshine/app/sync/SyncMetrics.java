@@ -0,0 +1,99 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.Build;
+import android.os.Trace;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+
+/**
+ * Records how long each phase of a sync takes, along with the bytes and rows it moved, and
+ * stores them in the sync_metrics table once the sync is over.
+ *
+ * Every phase is also a trace section, so the same phases line up in a systrace or Perfetto
+ * capture.  Trace sections nest per thread, which is why a phase has to end on the thread it
+ * started on.  Phases of different locations may be recorded from different threads at once.
+ */
+public class SyncMetrics {
+    private static final String TRACE_PREFIX = "Sync:";
+
+    private final long mSyncId;
+    private final ArrayList<ContentValues> mRecords = new ArrayList<ContentValues>();
+
+    public SyncMetrics() {
+        mSyncId = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts timing a phase.
+     *
+     * @return the start time to hand back to {@link #end}
+     */
+    public long begin(String phase) {
+        beginSection(phase);
+        return System.nanoTime();
+    }
+
+    /**
+     * Stops timing a phase started with {@link #begin} on the same thread and records it.
+     *
+     * @param locationSetting the location the phase worked on, or null for the whole sync
+     */
+    public void end(String locationSetting, String phase, long startNanos, long bytes, int rows) {
+        long duration = System.nanoTime() - startNanos;
+        endSection();
+        record(locationSetting, phase, duration, bytes, rows);
+    }
+
+    /**
+     * Records a phase that was timed elsewhere.
+     */
+    public void record(String locationSetting, String phase, long durationNanos, long bytes,
+                       int rows) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID, mSyncId);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_PHASE, phase);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_DURATION, durationNanos);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_BYTES, bytes);
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_ROWS, rows);
+        synchronized (mRecords) {
+            mRecords.add(values);
+        }
+    }
+
+    /**
+     * Stores everything recorded so far.  The provider drops the oldest sync to make room.
+     */
+    public void save(ContentResolver contentResolver) {
+        ContentValues[] records;
+        synchronized (mRecords) {
+            records = mRecords.toArray(new ContentValues[mRecords.size()]);
+            mRecords.clear();
+        }
+        if (records.length > 0) {
+            contentResolver.bulkInsert(WeatherContract.SyncMetricsEntry.CONTENT_URI, records);
+        }
+    }
+
+    /**
+     * Opens a trace section for a phase that isn't recorded through {@link #begin}.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void beginSection(String phase) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(TRACE_PREFIX + phase);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
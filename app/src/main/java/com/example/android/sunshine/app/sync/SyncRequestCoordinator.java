@@ -0,0 +1,200 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.List;
+
+/**
+ * Keeps the sync adapter from running several times for the same thing.
+ *
+ * Requests for an immediate sync are held for {@link #COALESCE_WINDOW_MILLIS}, and every
+ * request arriving meanwhile is folded into the same sync, so a burst of preference changes
+ * costs a single sync.  A periodic sync that starts while a manual sync is running, or has
+ * been asked for and not started yet, is folded into that one too: the manual sync reads the
+ * preferences when it starts, so it fetches whatever the periodic one would have.  Last, a
+ * sync is dropped if a sync with the same inputs, the locations and coordinates to fetch,
+ * finished successfully moments ago, which covers a periodic sync the sync manager ran right
+ * after a manual one, as well as repeated manual syncs.
+ *
+ * The sync adapter runs in the app's process, so one instance sees both sides.  How many syncs
+ * were avoided either way is kept in SharedPreferences.
+ */
+public class SyncRequestCoordinator {
+    private static final String LOG_TAG = SyncRequestCoordinator.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MILLIS = 1500;
+
+    // How long a finished sync makes another one with the same inputs redundant
+    static final long MANUAL_FRESH_MILLIS = 10 * 1000;
+    static final long PERIODIC_FRESH_MILLIS = 5 * 60 * 1000;
+
+    // How long a manual sync handed to the sync manager is expected to take to start; past
+    // that, it may never come, e.g. without a network, and periodic syncs run again
+    static final long MANUAL_START_MILLIS = 60 * 1000;
+
+    private static SyncRequestCoordinator sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Runnable mRequestRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SyncRequestCoordinator.this) {
+                mRequestPending = false;
+                mManualRequested = true;
+                mManualRequestTime = elapsedRealtime();
+            }
+            performRequest();
+        }
+    };
+
+    private boolean mRequestPending;
+    // Whether a manual sync was handed to the sync manager and hasn't started yet, and when
+    private boolean mManualRequested;
+    private long mManualRequestTime;
+    private boolean mManualRunning;
+    private String mLastInputs;
+    private long mLastFinishedTime;
+
+    public static synchronized SyncRequestCoordinator getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncRequestCoordinator(context.getApplicationContext(),
+                    Looper.getMainLooper());
+        }
+        return sInstance;
+    }
+
+    SyncRequestCoordinator(Context context, Looper looper) {
+        mContext = context;
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * @return the current time in milliseconds on the monotonic clock; overridden by tests
+     */
+    long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Asks for an immediate sync, which starts once no other request came in for
+     * {@link #COALESCE_WINDOW_MILLIS}.  May be called from any thread.
+     */
+    public synchronized void requestSync() {
+        if (mRequestPending) {
+            mHandler.removeCallbacks(mRequestRunnable);
+            increment(R.string.pref_sync_coalesced_count_key);
+            Log.d(LOG_TAG, "Sync request coalesced");
+        }
+        mRequestPending = true;
+        mHandler.postDelayed(mRequestRunnable, COALESCE_WINDOW_MILLIS);
+    }
+
+    /**
+     * Hands the coalesced request to the sync manager.
+     */
+    void performRequest() {
+        SunshineSyncAdapter.requestExpeditedSync(mContext);
+    }
+
+    /**
+     * Called by the sync adapter before it starts syncing.
+     *
+     * @param inputs what the sync is going to fetch, see {@link #describeInputs}
+     * @param manual whether the sync was asked for, rather than periodic
+     * @return false if the sync is redundant and must be skipped; otherwise
+     * {@link #onSyncFinished} must follow
+     */
+    public synchronized boolean onSyncStarting(String inputs, boolean manual) {
+        if (!manual && isManualSyncComing()) {
+            increment(R.string.pref_sync_coalesced_count_key);
+            Log.d(LOG_TAG, "Periodic sync folded into a manual one");
+            return false;
+        }
+        if (manual) {
+            mManualRequested = false;
+        }
+        long freshMillis = manual ? MANUAL_FRESH_MILLIS : PERIODIC_FRESH_MILLIS;
+        if (inputs.equals(mLastInputs) && elapsedRealtime() - mLastFinishedTime < freshMillis) {
+            increment(R.string.pref_sync_dropped_count_key);
+            Log.d(LOG_TAG, (manual ? "Manual" : "Periodic")
+                    + " sync dropped, the same sync just finished");
+            return false;
+        }
+        mManualRunning = manual;
+        return true;
+    }
+
+    /*
+        Whether a manual sync is running, waiting for the coalescing window to close, or asked
+        of the sync manager recently enough that it is still expected to start.
+     */
+    private boolean isManualSyncComing() {
+        return mManualRunning || mRequestPending || (mManualRequested
+                && elapsedRealtime() - mManualRequestTime < MANUAL_START_MILLIS);
+    }
+
+    /**
+     * Called by the sync adapter once a sync it didn't skip is over.
+     *
+     * @param manual the same as given to {@link #onSyncStarting}
+     * @param succeeded whether the data is now current; failed syncs never make others
+     *                  redundant
+     */
+    public synchronized void onSyncFinished(String inputs, boolean manual, boolean succeeded) {
+        if (manual) {
+            mManualRunning = false;
+        }
+        if (succeeded) {
+            mLastInputs = inputs;
+            mLastFinishedTime = elapsedRealtime();
+        }
+    }
+
+    /**
+     * @return how many sync requests, and periodic syncs, were folded into another request
+     */
+    public int getCoalescedCount() {
+        return getCount(R.string.pref_sync_coalesced_count_key);
+    }
+
+    /**
+     * @return how many syncs were skipped because the same sync had just run
+     */
+    public int getDroppedCount() {
+        return getCount(R.string.pref_sync_dropped_count_key);
+    }
+
+    /**
+     * @return a key that is equal for syncs that fetch the same data
+     */
+    public static String describeInputs(List<SyncEngine.Target> targets) {
+        StringBuilder builder = new StringBuilder();
+        for (SyncEngine.Target target : targets) {
+            builder.append(target.locationSetting)
+                    .append('|').append(target.latitude)
+                    .append('|').append(target.longitude)
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    private int getCount(int keyId) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        return prefs.getInt(mContext.getString(keyId), 0);
+    }
+
+    private void increment(int keyId) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(keyId);
+        prefs.edit().putInt(key, prefs.getInt(key, 0) + 1).apply();
+    }
+}
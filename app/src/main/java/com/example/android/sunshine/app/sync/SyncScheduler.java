@@ -0,0 +1,188 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.SyncState;
+import com.example.android.sunshine.app.data.WeatherContract.SyncStateEntry;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the period of the next syncs instead of always syncing every
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL} seconds.
+ *
+ * Starting from that interval, a forecast that keeps coming back unchanged is synced less
+ * often and one that changed a lot more often, failing syncs back off, nights are stretched,
+ * and so is everything when no widget, Muzei or watch face shows the weather.  Every decision
+ * is logged with its inputs, and the periodic sync is only rescheduled when the interval
+ * actually changes.  The schedule's state is kept in the sync state table, in one transaction
+ * per sync.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // Never sync more often than hourly or less often than twice a day, in seconds
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+
+    // A sync that changed at least this share of the forecast days halves the interval
+    static final double HIGH_CHANGE_RATIO = 0.5;
+
+    // Caps on how many doublings stable and failing syncs may add up to
+    private static final int MAX_STABLE_DOUBLINGS = 2;
+    private static final int MAX_FAILURE_DOUBLINGS = 3;
+
+    // Local hours between which nobody is expected to look at the weather
+    static final int NIGHT_START_HOUR = 0;
+    static final int NIGHT_END_HOUR = 6;
+
+    /**
+     * What the next interval is decided from.
+     */
+    static class Inputs {
+        // Share of the preferred location's forecast days the last sync inserted or updated
+        double changeRatio;
+        // Syncs in a row, including the last one, that changed nothing
+        int stableSyncs;
+        // Syncs in a row, including the last one, that failed for the preferred location
+        int failedSyncs;
+        // Local hour of day, 0 to 23
+        int hourOfDay;
+        // Whether a widget, Muzei or a watch face shows the weather
+        boolean consumersActive;
+
+        @Override
+        public String toString() {
+            return "changeRatio=" + changeRatio + " stableSyncs=" + stableSyncs
+                    + " failedSyncs=" + failedSyncs + " hourOfDay=" + hourOfDay
+                    + " consumersActive=" + consumersActive;
+        }
+    }
+
+    /**
+     * @return the interval between syncs, in seconds
+     */
+    static int pickInterval(Inputs inputs) {
+        double interval = SunshineSyncAdapter.SYNC_INTERVAL;
+
+        if (inputs.failedSyncs > 0) {
+            interval *= 1 << Math.min(inputs.failedSyncs, MAX_FAILURE_DOUBLINGS);
+        } else if (inputs.changeRatio >= HIGH_CHANGE_RATIO) {
+            interval /= 2;
+        } else if (inputs.stableSyncs > 0) {
+            interval *= 1 << Math.min(inputs.stableSyncs, MAX_STABLE_DOUBLINGS);
+        }
+
+        if (inputs.hourOfDay >= NIGHT_START_HOUR && inputs.hourOfDay < NIGHT_END_HOUR) {
+            interval *= 2;
+        }
+        if (!inputs.consumersActive) {
+            interval *= 1.5;
+        }
+
+        return (int) Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+    }
+
+    /**
+     * Updates the schedule after a sync.
+     *
+     * @param preferred the result of the preferred location, or null if the sync didn't get to
+     * it, in which case the schedule is left as it is
+     */
+    public static void onSyncFinished(Context context, SyncEngine.LocationResult preferred) {
+        if (preferred == null) {
+            return;
+        }
+        ContentResolver contentResolver = context.getContentResolver();
+
+        Inputs inputs = new Inputs();
+        if (preferred.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            inputs.changeRatio = Math.min(1.0,
+                    (preferred.inserted + preferred.updated) / (double) SyncEngine.NUM_DAYS);
+            inputs.stableSyncs = preferred.hasChanges() ? 0 : (int) SyncState.getLong(
+                    contentResolver, SyncStateEntry.KEY_SYNC_STABLE_COUNT, 0) + 1;
+            inputs.failedSyncs = 0;
+        } else {
+            inputs.stableSyncs = 0;
+            inputs.failedSyncs = (int) SyncState.getLong(
+                    contentResolver, SyncStateEntry.KEY_SYNC_FAILURE_COUNT, 0) + 1;
+        }
+        Time now = new Time();
+        now.setToNow();
+        inputs.hourOfDay = now.hour;
+        inputs.consumersActive = hasActiveConsumers(context);
+
+        int interval = pickInterval(inputs);
+        int previousInterval = (int) SyncState.getLong(contentResolver,
+                SyncStateEntry.KEY_SYNC_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+        Log.i(LOG_TAG, "Next sync in " + interval + "s (was " + previousInterval + "s): "
+                + inputs);
+
+        if (interval != previousInterval) {
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+        }
+        Map<String, Long> state = new HashMap<String, Long>(3);
+        state.put(SyncStateEntry.KEY_SYNC_INTERVAL, (long) interval);
+        state.put(SyncStateEntry.KEY_SYNC_STABLE_COUNT, (long) inputs.stableSyncs);
+        state.put(SyncStateEntry.KEY_SYNC_FAILURE_COUNT, (long) inputs.failedSyncs);
+        SyncState.putAll(contentResolver, state);
+    }
+
+    /**
+     * @return true if a home screen widget, Muzei or a connected watch shows the weather
+     */
+    static boolean hasActiveConsumers(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        if (appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0) {
+            return true;
+        }
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getBoolean(context.getString(R.string.pref_muzei_enabled_key), false)) {
+            return true;
+        }
+        // Remembered by updateWatchConnected(), so the sync never waits on Play services
+        return prefs.getBoolean(context.getString(R.string.pref_watch_connected_key), false);
+    }
+
+    /**
+     * Remembers whether a watch is connected, for {@link #hasActiveConsumers}.  The watch face
+     * only gets the weather the app pushes it while the app's client is connected, so that is
+     * when to look; the answer comes back on the client's thread and nothing waits for it.
+     *
+     * @param client a connected client with {@link Wearable#API}
+     */
+    public static void updateWatchConnected(final Context context, GoogleApiClient client) {
+        Wearable.NodeApi.getConnectedNodes(client).setResultCallback(
+                new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(@NonNull NodeApi.GetConnectedNodesResult nodes) {
+                        if (!nodes.getStatus().isSuccess()) {
+                            return;
+                        }
+                        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                                .putBoolean(context.getString(R.string.pref_watch_connected_key),
+                                        !nodes.getNodes().isEmpty())
+                                .apply();
+                    }
+                });
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Passes a stream through unchanged while copying every byte read from it to an output stream.
+ */
+public class TeeInputStream extends FilterInputStream {
+    private final OutputStream mCopy;
+
+    public TeeInputStream(InputStream in, OutputStream copy) {
+        super(in);
+        mCopy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            mCopy.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, count);
+        if (read > 0) {
+            mCopy.write(buffer, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        if (count <= 0) {
+            return 0;
+        }
+        // Skipped bytes still have to make it into the copy
+        byte[] buffer = new byte[(int) Math.min(count, 1024)];
+        long skipped = 0;
+        while (skipped < count) {
+            int read = read(buffer, 0, (int) Math.min(count - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        // Resetting would copy the same bytes twice
+        return false;
+    }
+}
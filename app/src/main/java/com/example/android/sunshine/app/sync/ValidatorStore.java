@@ -0,0 +1,107 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Persists the HTTP response validators (ETag, Last-Modified and a hash of the body) of every
+ * forecast request, keyed by the full request URI, so the next sync can ask the server whether
+ * anything changed instead of downloading the forecast again.
+ */
+public class ValidatorStore {
+
+    private static final String[] VALIDATOR_PROJECTION = new String[] {
+            WeatherContract.ValidatorEntry.COLUMN_ETAG,
+            WeatherContract.ValidatorEntry.COLUMN_LAST_MODIFIED,
+            WeatherContract.ValidatorEntry.COLUMN_BODY_HASH,
+            WeatherContract.ValidatorEntry.COLUMN_FETCH_TIME
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+    private static final int INDEX_LAST_MODIFIED = 1;
+    private static final int INDEX_BODY_HASH = 2;
+    private static final int INDEX_FETCH_TIME = 3;
+
+    private static final String sRequestUriSelection =
+            WeatherContract.ValidatorEntry.COLUMN_REQUEST_URI + " = ?";
+
+    /**
+     * The validators stored for one request.
+     */
+    public static class Validator {
+        public final String etag;
+        public final String lastModified;
+        public final String bodyHash;
+        public final long fetchTime;
+
+        public Validator(String etag, String lastModified, String bodyHash, long fetchTime) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.bodyHash = bodyHash;
+            this.fetchTime = fetchTime;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    public ValidatorStore(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * @return the validators stored for the request, or null if there are none
+     */
+    public Validator get(String requestUri) {
+        Cursor cursor = mContentResolver.query(WeatherContract.ValidatorEntry.CONTENT_URI,
+                VALIDATOR_PROJECTION, sRequestUriSelection, new String[] {requestUri}, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Validator(cursor.getString(INDEX_ETAG),
+                    cursor.getString(INDEX_LAST_MODIFIED),
+                    cursor.getString(INDEX_BODY_HASH),
+                    cursor.getLong(INDEX_FETCH_TIME));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores the validators for the request, replacing whatever was stored before.
+     */
+    public void put(String requestUri, Validator validator) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.ValidatorEntry.COLUMN_REQUEST_URI, requestUri);
+        values.put(WeatherContract.ValidatorEntry.COLUMN_ETAG, validator.etag);
+        values.put(WeatherContract.ValidatorEntry.COLUMN_LAST_MODIFIED, validator.lastModified);
+        values.put(WeatherContract.ValidatorEntry.COLUMN_BODY_HASH, validator.bodyHash);
+        values.put(WeatherContract.ValidatorEntry.COLUMN_FETCH_TIME, validator.fetchTime);
+        mContentResolver.insert(WeatherContract.ValidatorEntry.CONTENT_URI, values);
+    }
+
+    /**
+     * Records that the stored response for the request was confirmed as current.
+     */
+    public void touch(String requestUri, long fetchTime) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.ValidatorEntry.COLUMN_FETCH_TIME, fetchTime);
+        mContentResolver.update(WeatherContract.ValidatorEntry.CONTENT_URI, values,
+                sRequestUriSelection, new String[] {requestUri});
+    }
+
+    /**
+     * Forgets the validators for the request, forcing the next fetch to be unconditional.
+     */
+    public void remove(String requestUri) {
+        mContentResolver.delete(WeatherContract.ValidatorEntry.CONTENT_URI,
+                sRequestUriSelection, new String[] {requestUri});
+    }
+}
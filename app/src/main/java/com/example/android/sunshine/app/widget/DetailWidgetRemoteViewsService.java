@@ -16,6 +16,7 @@ import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 import java.util.concurrent.ExecutionException;
@@ -63,13 +64,18 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                data = ForecastSnapshot.query(DetailWidgetRemoteViewsService.this, location,
+                        FORECAST_COLUMNS);
+                if (data == null) {
+                    Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                            .buildWeatherLocationWithStartDate(location,
+                                    System.currentTimeMillis());
+                    data = getContentResolver().query(weatherForLocationUri,
+                            FORECAST_COLUMNS,
+                            null,
+                            null,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                }
                 Binder.restoreCallingIdentity(identityToken);
             }
 
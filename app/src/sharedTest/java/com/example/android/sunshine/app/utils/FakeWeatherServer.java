@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A tiny HTTP/1.1 server on the loopback interface that stands in for OpenWeatherMap, so the
+ * sync code can be tested without a network.  Every connection serves exactly one request,
+ * answered by whatever the {@link Dispatcher} returns.  Connections are served on threads of
+ * their own, so a dispatcher that holds its response back doesn't hold back the others.
+ *
+ * It lives with the sources shared by the instrumentation tests and the JVM benchmarks.
+ */
+public class FakeWeatherServer {
+
+    /**
+     * A request as the server received it.
+     */
+    public static class Request {
+        public final String method;
+        public final String path;
+        private final Map<String, String> mHeaders;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            mHeaders = headers;
+        }
+
+        /**
+         * @return the value of the header, ignoring the case of its name, or null
+         */
+        public String getHeader(String name) {
+            return mHeaders.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    /**
+     * The response the server sends back.
+     */
+    public static class Response {
+        final int mCode;
+        final Map<String, String> mHeaders = new LinkedHashMap<String, String>();
+        byte[] mBody = new byte[0];
+        int mCutOffAfter = -1;
+
+        public Response(int code) {
+            mCode = code;
+        }
+
+        public static Response ok(String body) {
+            return new Response(200).setBody(body);
+        }
+
+        public Response setHeader(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+
+        public Response setBody(String body) {
+            try {
+                mBody = body.getBytes("UTF-8");
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return this;
+        }
+
+        public Response setBody(byte[] body) {
+            mBody = body;
+            return this;
+        }
+
+        /**
+         * Drops the connection after the given number of body bytes, as a flaky network
+         * would.  The Content-Length still announces the whole body.
+         */
+        public Response cutOffAfter(int bytes) {
+            mCutOffAfter = bytes;
+            return this;
+        }
+    }
+
+    public interface Dispatcher {
+        Response dispatch(Request request);
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Thread mThread;
+    private final List<Request> mRequests = new ArrayList<Request>();
+    private volatile Dispatcher mDispatcher;
+
+    public FakeWeatherServer(Dispatcher dispatcher) throws IOException {
+        mDispatcher = dispatcher;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mThread = new Thread("FakeWeatherServer") {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        };
+        mThread.start();
+    }
+
+    public void setDispatcher(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * @return an absolute URL for the path on this server, e.g. getUrl("/forecast/daily?q=x")
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public int getRequestCount() {
+        synchronized (mRequests) {
+            return mRequests.size();
+        }
+    }
+
+    public Request getRequest(int index) {
+        synchronized (mRequests) {
+            return mRequests.get(index);
+        }
+    }
+
+    public Request getLastRequest() {
+        synchronized (mRequests) {
+            return mRequests.get(mRequests.size() - 1);
+        }
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+            mThread.join(5000);
+        } catch (IOException | InterruptedException e) {
+            // Nothing left to clean up
+        }
+    }
+
+    private void acceptLoop() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // Either the server was shut down or the client went away; keep serving.
+                continue;
+            }
+            Thread connectionThread = new Thread("FakeWeatherServer connection") {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // The client went away
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Nothing left to clean up
+                        }
+                    }
+                }
+            };
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        String[] parts = requestLine.split(" ");
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+        synchronized (mRequests) {
+            mRequests.add(request);
+        }
+
+        Response response = mDispatcher.dispatch(request);
+        boolean hasBody = response.mCode != 304 && response.mCode != 204;
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.mCode).append(" Fake\r\n");
+        for (Map.Entry<String, String> header : response.mHeaders.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("Content-Length: ").append(hasBody ? response.mBody.length : 0).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (hasBody) {
+            int length = response.mBody.length;
+            if (response.mCutOffAfter >= 0) {
+                length = Math.min(length, response.mCutOffAfter);
+            }
+            out.write(response.mBody, 0, length);
+        }
+        out.flush();
+    }
+}
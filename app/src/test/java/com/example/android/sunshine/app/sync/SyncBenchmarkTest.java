@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.SavedLocations;
+import com.example.android.sunshine.app.data.SyncState;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+import com.example.android.sunshine.app.utils.FakeWeatherServer;
+import com.example.android.sunshine.app.utils.OwmReplayDispatcher;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/*
+    Runs whole syncs through SunshineSyncAdapter against a local stand-in for OpenWeatherMap
+    that replays recorded responses, and reports per run:
+
+        wall time, bytes allocated, forecast rows written, provider notifications
+
+    on standard out, one line per run, which ends up in the test report.  Every run gets a
+    forecast it hasn't seen, so it goes all the way through parsing and storing.
+
+    The throughput runs fail when fewer rows than the floor are written per second, so a
+    regression in parsing or storing fails the build.  The floor is deliberately low for a
+    shared build box and can be raised where the hardware is known:
+
+        ./gradlew :app:testDebugUnitTest -Dsunshine.benchmark.minRowsPerSecond=2000
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SyncBenchmarkTest {
+
+    private static final String MIN_ROWS_PER_SECOND_PROPERTY =
+            "sunshine.benchmark.minRowsPerSecond";
+    private static final double DEFAULT_MIN_ROWS_PER_SECOND = 100;
+
+    private static final String LOCATION_PREFIX = "benchmark-";
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    private Context mContext;
+    private FakeWeatherServer mServer;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        Robolectric.setupContentProvider(WeatherProvider.class,
+                mContext.getString(R.string.content_authority));
+
+        // The notification would fetch its art from the real art server
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+    }
+
+    @After
+    public void tearDown() {
+        SyncEngine.sServerUrl = SyncEngine.SERVER_URL;
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void syncOneLocation() throws Exception {
+        Report report = benchmark("1 location, 14 days", 1, 14, 40, 0, 0);
+        assertThroughput(report);
+    }
+
+    @Test
+    public void syncTenLocations() throws Exception {
+        Report report = benchmark("10 locations, 14 days", 10, 14, 40, 0, 0);
+        assertThroughput(report);
+    }
+
+    @Test
+    public void syncLargeResponses() throws Exception {
+        // Far more entries than OWM ever sends, to make parsing dominate
+        Report report = benchmark("3 locations, 365 days", 3, 365, 400, 0, 0);
+        assertThroughput(report);
+    }
+
+    @Test
+    public void syncSlowServer() throws Exception {
+        // Latency shows how much the worker pool overlaps; not held against a floor
+        benchmark("10 locations, 200 ms latency", 10, 14, 40, 200, 0);
+    }
+
+    @Test
+    public void syncFailingServer() throws Exception {
+        // Some locations fail and the breaker may open; the others must still be stored
+        Report report = benchmark("10 locations, 30% errors", 10, 14, 40, 0, 0.3);
+        assertTrue("No location failed in [" + report.name + "]", report.ioExceptions > 0);
+        assertTrue("Nothing was written in [" + report.name + "]", report.rows > 0);
+    }
+
+    private Report benchmark(String name, int locations, int days, int hourlySteps,
+                             long latencyMillis, double errorRate) throws Exception {
+        OwmReplayDispatcher dispatcher = new OwmReplayDispatcher(days, hourlySteps);
+        dispatcher.setLatency(latencyMillis);
+        dispatcher.setErrorRate(errorRate);
+        mServer = new FakeWeatherServer(dispatcher);
+        SyncEngine.sServerUrl = mServer.getUrl("/");
+
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), LOCATION_PREFIX + 0)
+                .commit();
+        for (int i = 1; i < locations; i++) {
+            SavedLocations.add(mContext.getContentResolver(), LOCATION_PREFIX + i);
+        }
+
+        SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+        Account account = new Account(mContext.getString(R.string.app_name),
+                mContext.getString(R.string.sync_account_type));
+        ShadowContentResolver shadowResolver = shadowOf(mContext.getContentResolver());
+
+        Report report = new Report(name);
+        for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            dispatcher.setRevision(run);
+            // Neither the breaker nor the skipping of repeated syncs is what's measured here
+            mContext.getContentResolver().delete(WeatherContract.SyncStateEntry.CONTENT_URI,
+                    WeatherContract.SyncStateEntry.COLUMN_KEY + " LIKE ?", new String[] {
+                            WeatherContract.SyncStateEntry.KEY_FORECAST_BREAKER_PREFIX + "%"});
+            SystemClock.sleep(SyncRequestCoordinator.PERIODIC_FRESH_MILLIS);
+
+            Bundle extras = new Bundle();
+            extras.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+            SyncResult syncResult = new SyncResult();
+            int notificationsBefore = shadowResolver.getNotifiedUris().size();
+            AllocationCounter allocations = AllocationCounter.start();
+            long start = System.nanoTime();
+
+            syncAdapter.onPerformSync(account, extras,
+                    mContext.getString(R.string.content_authority), null, syncResult);
+
+            long wallNanos = System.nanoTime() - start;
+            long allocatedBytes = allocations.stop();
+            long rows = syncResult.stats.numInserts + syncResult.stats.numUpdates
+                    + getHourlyRowsOfLastSync();
+            int notifications = shadowResolver.getNotifiedUris().size() - notificationsBefore;
+
+            System.out.println(String.format(Locale.US,
+                    "SyncBenchmark [%s] run %d%s: %.1f ms, %d KB allocated, %d rows, "
+                            + "%d notifications, %d KB served",
+                    name, run, run < WARMUP_RUNS ? " (warmup)" : "", wallNanos / 1e6,
+                    allocatedBytes / 1024, rows, notifications,
+                    locations * dispatcher.getResponseBytes() / 1024));
+            report.add(run >= WARMUP_RUNS, wallNanos, rows);
+            report.ioExceptions += syncResult.stats.numIoExceptions;
+            assertLocationStatuses(name, locations, syncResult);
+        }
+        System.out.println(String.format(Locale.US,
+                "SyncBenchmark [%s] %d measured runs: %.1f ms per sync, %.0f rows per second",
+                name, MEASURED_RUNS, report.getMillisPerRun(), report.getRowsPerSecond()));
+        return report;
+    }
+
+    /*
+        The sync results only count daily rows; the hourly ones are in the sync's metrics.
+     */
+    private long getHourlyRowsOfLastSync() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                new String[]{WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID,
+                        WeatherContract.SyncMetricsEntry.COLUMN_ROWS},
+                WeatherContract.SyncMetricsEntry.COLUMN_PHASE + " = ?",
+                new String[]{WeatherContract.SyncMetricsEntry.PHASE_HOURLY},
+                WeatherContract.SyncMetricsEntry.COLUMN_SYNC_ID + " DESC");
+        long rows = 0;
+        try {
+            long lastSyncId = -1;
+            while (cursor.moveToNext()) {
+                if (lastSyncId != -1 && cursor.getLong(0) != lastSyncId) {
+                    break;
+                }
+                lastSyncId = cursor.getLong(0);
+                rows += cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /*
+        Every location has to come out of a sync either stored or down, and each one that is
+        down has to have been counted for the sync manager to retry.
+     */
+    private void assertLocationStatuses(String name, int locations, SyncResult syncResult) {
+        ContentResolver resolver = mContext.getContentResolver();
+        int down = 0;
+        for (int i = 0; i < locations; i++) {
+            String location = LOCATION_PREFIX + i;
+            long status = SyncState.getLong(resolver,
+                    WeatherContract.SyncStateEntry.buildLocationStatusKey(location),
+                    SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+            if (status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                Cursor cursor = resolver.query(
+                        WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                        null, null, null, null);
+                try {
+                    assertTrue("[" + name + "] stored nothing for " + location,
+                            cursor.getCount() > 0);
+                } finally {
+                    cursor.close();
+                }
+            } else {
+                assertEquals("[" + name + "] status of " + location,
+                        SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, status);
+                down++;
+            }
+        }
+        assertEquals("[" + name + "] I/O errors", down, syncResult.stats.numIoExceptions);
+    }
+
+    private static void assertThroughput(Report report) {
+        double floor = Double.parseDouble(System.getProperty(MIN_ROWS_PER_SECOND_PROPERTY,
+                Double.toString(DEFAULT_MIN_ROWS_PER_SECOND)));
+        assertTrue("Nothing was written in [" + report.name + "]", report.rows > 0);
+        assertTrue(String.format(Locale.US, "[%s] wrote %.0f rows per second, below %.0f",
+                        report.name, report.getRowsPerSecond(), floor),
+                report.getRowsPerSecond() >= floor);
+    }
+
+    /*
+        Adds up the measured runs of one benchmark, and the I/O errors of all of them.
+     */
+    private static class Report {
+        final String name;
+        int runs;
+        int measuredRuns;
+        long wallNanos;
+        long rows;
+        long ioExceptions;
+
+        Report(String name) {
+            this.name = name;
+        }
+
+        void add(boolean measured, long runWallNanos, long runRows) {
+            runs++;
+            if (measured) {
+                measuredRuns++;
+                wallNanos += runWallNanos;
+                rows += runRows;
+            }
+        }
+
+        double getMillisPerRun() {
+            return measuredRuns == 0 ? 0 : wallNanos / 1e6 / measuredRuns;
+        }
+
+        double getRowsPerSecond() {
+            return wallNanos == 0 ? 0 : rows / (wallNanos / 1e9);
+        }
+    }
+
+    /*
+        Counts the bytes allocated by every thread of the JVM while it runs, including the
+        sync's workers, which come and go within a sync.  Their counters vanish with them, so
+        they are sampled every millisecond and the last sample is kept; the little a worker
+        allocates in its last millisecond is missed.  Reads 0 on JVMs without the counters.
+     */
+    private static class AllocationCounter implements Runnable {
+        private final com.sun.management.ThreadMXBean mThreads;
+        private final Map<Long, Long> mFirst = new HashMap<Long, Long>();
+        private final Map<Long, Long> mLast = new HashMap<Long, Long>();
+        private final Thread mSampler = new Thread(this, "AllocationCounter");
+        private boolean mSampled;
+        private volatile boolean mStopped;
+
+        private AllocationCounter(com.sun.management.ThreadMXBean threads) {
+            mThreads = threads;
+        }
+
+        static AllocationCounter start() {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            AllocationCounter counter = new AllocationCounter(
+                    threads instanceof com.sun.management.ThreadMXBean
+                            && ((com.sun.management.ThreadMXBean) threads)
+                                    .isThreadAllocatedMemorySupported()
+                            ? (com.sun.management.ThreadMXBean) threads : null);
+            counter.sample();
+            counter.mSampler.setDaemon(true);
+            counter.mSampler.start();
+            return counter;
+        }
+
+        @Override
+        public void run() {
+            while (!mStopped) {
+                sample();
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void sample() {
+            if (mThreads == null) {
+                return;
+            }
+            long[] ids = mThreads.getAllThreadIds();
+            long[] allocated = mThreads.getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                // -1 for threads that ended since their id was read
+                if (allocated[i] < 0) {
+                    continue;
+                }
+                if (!mFirst.containsKey(ids[i])) {
+                    // Threads started after the first sample start from nothing
+                    mFirst.put(ids[i], mSampled ? 0L : allocated[i]);
+                }
+                mLast.put(ids[i], allocated[i]);
+            }
+            mSampled = true;
+        }
+
+        long stop() throws InterruptedException {
+            mStopped = true;
+            mSampler.join();
+            sample();
+            long total = 0;
+            synchronized (this) {
+                for (Map.Entry<Long, Long> last : mLast.entrySet()) {
+                    if (last.getKey() != mSampler.getId()) {
+                        total += last.getValue() - mFirst.get(last.getKey());
+                    }
+                }
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Answers forecast requests with the OpenWeatherMap responses recorded under
+ * {@code src/test/resources/owm}, stretched or cut to the number of entries asked for.
+ *
+ * The responses can be held back to play a slow server, and a share of them can be turned into
+ * server errors.  Changing the revision changes every temperature a little, so each sync sees
+ * a forecast that is new to it and has to write it.
+ */
+public class OwmReplayDispatcher implements FakeWeatherServer.Dispatcher {
+    private static final String DAILY_PATH = "/forecast/daily?";
+    private static final String HOURLY_PATH = "/forecast?";
+
+    private static final long DAY_IN_SECONDS = 24 * 60 * 60;
+    private static final long STEP_IN_SECONDS = 3 * 60 * 60;
+
+    private final JSONObject mDailyRecording;
+    private final JSONObject mHourlyRecording;
+    private final int mDays;
+    private final int mHourlySteps;
+
+    private volatile long mLatencyMillis;
+    private volatile double mErrorRate;
+    private final Random mRandom = new Random(0);
+
+    private volatile byte[] mDailyBody;
+    private volatile byte[] mHourlyBody;
+
+    /**
+     * @param days how many days every daily forecast has
+     * @param hourlySteps how many 3 hour steps every hourly forecast has
+     */
+    public OwmReplayDispatcher(int days, int hourlySteps) throws IOException, JSONException {
+        mDailyRecording = new JSONObject(readResource("/owm/forecast_daily.json"));
+        mHourlyRecording = new JSONObject(readResource("/owm/forecast_hourly.json"));
+        mDays = days;
+        mHourlySteps = hourlySteps;
+        setRevision(0);
+    }
+
+    /**
+     * Holds every response back for the given time before sending it.
+     */
+    public void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    /**
+     * Answers the given share of the requests, picked at random but the same every run, with
+     * an internal server error.
+     */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Rebuilds the responses with temperatures that differ from those of any other revision.
+     */
+    public void setRevision(int revision) throws JSONException {
+        mDailyBody = toBytes(stretch(mDailyRecording, mDays, DAY_IN_SECONDS, revision));
+        mHourlyBody = toBytes(stretch(mHourlyRecording, mHourlySteps, STEP_IN_SECONDS,
+                revision));
+    }
+
+    /**
+     * @return the size of a daily and an hourly response together
+     */
+    public int getResponseBytes() {
+        return mDailyBody.length + mHourlyBody.length;
+    }
+
+    @Override
+    public FakeWeatherServer.Response dispatch(FakeWeatherServer.Request request) {
+        if (mLatencyMillis > 0) {
+            try {
+                Thread.sleep(mLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean fail;
+        synchronized (mRandom) {
+            fail = mRandom.nextDouble() < mErrorRate;
+        }
+        if (fail) {
+            return new FakeWeatherServer.Response(500).setBody("{\"cod\":\"500\"}");
+        }
+
+        if (request.path.startsWith(DAILY_PATH)) {
+            return new FakeWeatherServer.Response(200).setBody(mDailyBody);
+        } else if (request.path.startsWith(HOURLY_PATH)) {
+            return new FakeWeatherServer.Response(200).setBody(mHourlyBody);
+        }
+        return new FakeWeatherServer.Response(404).setBody("{\"cod\":\"404\"}");
+    }
+
+    /*
+        Repeats the recorded entries until there are as many as asked for, moving each one to
+        its own time and nudging its temperatures by the revision.
+     */
+    private static JSONObject stretch(JSONObject recording, int count, long stepSeconds,
+                                      int revision) throws JSONException {
+        JSONObject response = new JSONObject(recording.toString());
+        JSONArray recorded = recording.getJSONArray("list");
+        long firstTime = recorded.getJSONObject(0).getLong("dt");
+        double nudge = revision * 0.01;
+
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject entry = new JSONObject(
+                    recorded.getJSONObject(i % recorded.length()).toString());
+            entry.put("dt", firstTime + i * stepSeconds);
+            // Daily entries keep their temperatures in an object, hourly ones under "main"
+            JSONObject temp = entry.optJSONObject("temp");
+            if (temp != null) {
+                temp.put("min", temp.getDouble("min") + nudge);
+                temp.put("max", temp.getDouble("max") + nudge);
+            } else {
+                JSONObject main = entry.getJSONObject("main");
+                main.put("temp", main.getDouble("temp") + nudge);
+            }
+            list.put(entry);
+        }
+        response.put("cnt", count);
+        response.put("list", list);
+        return response;
+    }
+
+    private static byte[] toBytes(JSONObject json) {
+        try {
+            return json.toString().getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String readResource(String name) throws IOException {
+        InputStream in = OwmReplayDispatcher.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Missing recording " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
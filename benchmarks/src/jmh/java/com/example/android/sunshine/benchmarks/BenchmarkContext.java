@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.android.sunshine.app.R;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * A {@link Context} that answers string lookups from the app's own values/strings.xml and
+ * keeps its preferences in memory, which is all the benchmarked helpers ask of a context.
+ */
+public class BenchmarkContext extends Context {
+    private static final String PACKAGE_NAME = "com.example.android.sunshine.app";
+
+    // Where the Gradle build points us; relative to the module when run by hand
+    private static final String RESOURCES_PROPERTY = "sunshine.resources";
+    private static final String DEFAULT_RESOURCES = "../app/src/main/res";
+
+    private static Map<Integer, String> sStrings;
+
+    private final Map<Integer, String> mStrings;
+    private final Preferences mPreferences = new Preferences();
+
+    public BenchmarkContext() {
+        mStrings = loadStrings();
+    }
+
+    /**
+     * Makes the helpers format in metric or imperial units from now on.
+     */
+    public BenchmarkContext setMetric(boolean metric) {
+        mPreferences.mValues.put(getString(R.string.pref_units_key),
+                getString(metric ? R.string.pref_units_metric : R.string.pref_units_imperial));
+        return this;
+    }
+
+    @Override
+    public String getString(int resId) {
+        String value = mStrings.get(resId);
+        if (value == null) {
+            throw new IllegalArgumentException("No string resource 0x"
+                    + Integer.toHexString(resId));
+        }
+        return value;
+    }
+
+    @Override
+    public String getPackageName() {
+        return PACKAGE_NAME;
+    }
+
+    @Override
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        return mPreferences;
+    }
+
+    private static synchronized Map<Integer, String> loadStrings() {
+        if (sStrings != null) {
+            return sStrings;
+        }
+        File values = new File(System.getProperty(RESOURCES_PROPERTY, DEFAULT_RESOURCES),
+                "values");
+        File[] files = values.listFiles();
+        if (files == null) {
+            throw new IllegalStateException("No resources found in " + values);
+        }
+
+        Map<String, String> byName = new HashMap<String, String>();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            for (File file : files) {
+                if (!file.getName().endsWith(".xml")) {
+                    continue;
+                }
+                Document document = factory.newDocumentBuilder().parse(file);
+                NodeList strings = document.getElementsByTagName("string");
+                for (int i = 0; i < strings.getLength(); i++) {
+                    Element string = (Element) strings.item(i);
+                    byName.put(string.getAttribute("name"),
+                            unescape(string.getTextContent()));
+                }
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read the resources in " + values, e);
+        }
+
+        // Match the names up with the ids the app was compiled against
+        Map<Integer, String> byId = new HashMap<Integer, String>();
+        for (Field field : R.string.class.getFields()) {
+            String value = byName.get(field.getName());
+            if (value != null) {
+                try {
+                    byId.put(field.getInt(null), value);
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        sStrings = byId;
+        return byId;
+    }
+
+    /*
+        Undoes the escaping aapt undoes when it compiles the resources.
+     */
+    private static String unescape(String raw) {
+        String text = raw.trim();
+        if (text.length() >= 2 && text.startsWith("\"") && text.endsWith("\"")) {
+            text = text.substring(1, text.length() - 1);
+        }
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                builder.append(c);
+                continue;
+            }
+            char escaped = text.charAt(++i);
+            switch (escaped) {
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    builder.append((char) Integer.parseInt(text.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static class Preferences implements SharedPreferences {
+        final Map<String, Object> mValues = new HashMap<String, Object>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return Collections.unmodifiableMap(mValues);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (String) value : defValue;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Integer) value : defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Long) value : defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Float) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            Object value = mValues.get(key);
+            return value != null ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return mValues.containsKey(key);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Date handling done for every row the forecast list binds: normalizing a date, and turning
+ * it into the label shown for it.  The label is built three different ways depending on how
+ * far ahead the day is, so each of those is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DateBenchmark {
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    // Today, tomorrow, a weekday name and a date
+    @Param({"0", "1", "3", "10"})
+    public int daysAhead;
+
+    private BenchmarkContext mContext;
+    private long mDate;
+
+    @Setup
+    public void setUp() {
+        mContext = new BenchmarkContext().setMetric(true);
+        mDate = WeatherContract.normalizeDate(System.currentTimeMillis())
+                + daysAhead * DAY_IN_MILLIS;
+    }
+
+    @Benchmark
+    public long normalizeDate() {
+        return WeatherContract.normalizeDate(mDate);
+    }
+
+    @Benchmark
+    public String friendlyDayString() {
+        return Utility.getFriendlyDayString(mContext, mDate, true);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.sync.ForecastStreamParser;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the recorded OpenWeatherMap daily forecast the way a sync does, from the raw bytes
+ * to the columns of every day, for the number of days the app asks for and for the most the
+ * server will send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ForecastParseBenchmark {
+    private static final long DAY_IN_SECONDS = 24 * 60 * 60;
+
+    @Param({"14", "16"})
+    public int days;
+
+    private byte[] mBody;
+    private int mJulianStartDay;
+
+    @Setup
+    public void setUp() throws Exception {
+        JSONObject recording = new JSONObject(readResource("/owm/forecast_daily.json"));
+        JSONArray recorded = recording.getJSONArray("list");
+        long firstTime = recorded.getJSONObject(0).getLong("dt");
+
+        // The recording holds a week; repeat it for as many days as asked for
+        JSONArray list = new JSONArray();
+        for (int i = 0; i < days; i++) {
+            JSONObject day = new JSONObject(
+                    recorded.getJSONObject(i % recorded.length()).toString());
+            day.put("dt", firstTime + i * DAY_IN_SECONDS);
+            list.put(day);
+        }
+        recording.put("cnt", days);
+        recording.put("list", list);
+        mBody = recording.toString().getBytes("UTF-8");
+
+        Time time = new Time();
+        time.setToNow();
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), time.gmtoff);
+    }
+
+    @Benchmark
+    public int parse(final Blackhole blackhole) throws Exception {
+        return ForecastStreamParser.parse(new ByteArrayInputStream(mBody), mJulianStartDay,
+                new ForecastStreamParser.Listener() {
+                    @Override
+                    public void onCity(long cityId, String cityName, double lat, double lon) {
+                        blackhole.consume(cityName);
+                    }
+
+                    @Override
+                    public void onDay(long date, long weatherId, String shortDesc,
+                                      double minTemp, double maxTemp, double humidity,
+                                      double pressure, double windSpeed, double degrees) {
+                        blackhole.consume(date);
+                        blackhole.consume(shortDesc);
+                        blackhole.consume(maxTemp);
+                    }
+                });
+    }
+
+    private static String readResource(String name) throws Exception {
+        InputStream in = ForecastParseBenchmark.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("Missing recording " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                out.write(buffer, 0, count);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
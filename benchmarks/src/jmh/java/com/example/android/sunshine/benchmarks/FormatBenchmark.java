@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.benchmarks;
+
+import com.example.android.sunshine.app.Utility;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The formatting helpers behind every forecast row, the detail screen and the widgets:
+ * temperatures and wind in both unit systems, and the lookups from an OpenWeatherMap
+ * condition id to its icon and its description.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark {
+    // One id from every group OWM defines, plus one the app doesn't know
+    private static final int[] WEATHER_IDS = {
+            201, 301, 500, 511, 521, 601, 701, 761, 781, 800, 801, 803, 900, 962, 999
+    };
+
+    @Param({"true", "false"})
+    public boolean metric;
+
+    private BenchmarkContext mContext;
+
+    @Setup
+    public void setUp() {
+        mContext = new BenchmarkContext().setMetric(metric);
+    }
+
+    @Benchmark
+    public String formatTemperature() {
+        return Utility.formatTemperature(mContext, 21.4);
+    }
+
+    @Benchmark
+    public String formattedWind() {
+        return Utility.getFormattedWind(mContext, 5.6f, 215f);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(15)
+    public void iconResourceForWeatherCondition(Blackhole blackhole) {
+        for (int weatherId : WEATHER_IDS) {
+            blackhole.consume(Utility.getIconResourceForWeatherCondition(weatherId));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(15)
+    public void stringForWeatherCondition(Blackhole blackhole) {
+        for (int weatherId : WEATHER_IDS) {
+            blackhole.consume(Utility.getStringForWeatherCondition(mContext, weatherId));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.content;
+
+/**
+ * Desktop stand-in for the framework class, covering only what the benchmarked code calls.
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public abstract String getString(int resId);
+
+    public String getString(int resId, Object... formatArgs) {
+        return String.format(getString(resId), formatArgs);
+    }
+
+    public abstract String getPackageName();
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.net;
+
+/**
+ * Desktop stand-in for the framework class.  Only here so WeatherContract can build its base
+ * URI when it is loaded; nothing the benchmarks run takes a URI apart.
+ */
+public final class Uri {
+    private final String mUriString;
+
+    private Uri(String uriString) {
+        mUriString = uriString;
+    }
+
+    public static Uri parse(String uriString) {
+        return new Uri(uriString);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && mUriString.equals(((Uri) o).mUriString);
+    }
+
+    @Override
+    public int hashCode() {
+        return mUriString.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return mUriString;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.text.format;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Desktop stand-in for the framework class, built on {@link Calendar}.  It follows the
+ * framework's Julian day arithmetic exactly, but the framework does its time zone work in
+ * native code, so the absolute cost of the date benchmarks is only indicative; compare runs
+ * with each other, not with a device.
+ */
+public class Time {
+    private static final int EPOCH_JULIAN_DAY = 2440588;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    public String timezone;
+    public long gmtoff;
+
+    public int second;
+    public int minute;
+    public int hour;
+    public int monthDay;
+    public int month;
+    public int year;
+
+    private final Calendar mCalendar;
+
+    public Time() {
+        this(TimeZone.getDefault().getID());
+    }
+
+    public Time(String timezone) {
+        this.timezone = timezone;
+        mCalendar = Calendar.getInstance(TimeZone.getTimeZone(timezone));
+        set(0);
+    }
+
+    public void set(long millis) {
+        mCalendar.setTimeInMillis(millis);
+        second = mCalendar.get(Calendar.SECOND);
+        minute = mCalendar.get(Calendar.MINUTE);
+        hour = mCalendar.get(Calendar.HOUR_OF_DAY);
+        monthDay = mCalendar.get(Calendar.DAY_OF_MONTH);
+        month = mCalendar.get(Calendar.MONTH);
+        year = mCalendar.get(Calendar.YEAR);
+        gmtoff = (mCalendar.get(Calendar.ZONE_OFFSET) + mCalendar.get(Calendar.DST_OFFSET))
+                / 1000;
+    }
+
+    public void setToNow() {
+        set(System.currentTimeMillis());
+    }
+
+    public long toMillis(boolean ignoreDst) {
+        return mCalendar.getTimeInMillis();
+    }
+
+    public static int getJulianDay(long millis, long gmtoff) {
+        long offsetMillis = gmtoff * 1000;
+        long julianDay = (millis + offsetMillis) / DAY_IN_MILLIS;
+        return (int) julianDay + EPOCH_JULIAN_DAY;
+    }
+
+    public long setJulianDay(int julianDay) {
+        // Same approach as the framework: land close to the day in UTC, then move to the
+        // start of the local day
+        long millis = (julianDay - EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+        set(millis);
+        int approximateDay = getJulianDay(millis, gmtoff);
+        mCalendar.add(Calendar.DAY_OF_MONTH, julianDay - approximateDay);
+        mCalendar.set(Calendar.HOUR_OF_DAY, 0);
+        mCalendar.set(Calendar.MINUTE, 0);
+        mCalendar.set(Calendar.SECOND, 0);
+        mCalendar.set(Calendar.MILLISECOND, 0);
+        millis = mCalendar.getTimeInMillis();
+        set(millis);
+        return millis;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Desktop stand-in for the framework class.  The framework reader and Gson's share their
+ * origin and their parsing loop, so this one just hands every call to Gson's, translating
+ * its tokens and malformed input errors into the framework's types.
+ */
+public final class JsonReader implements Closeable {
+    private final com.google.gson.stream.JsonReader mReader;
+
+    public JsonReader(Reader in) {
+        mReader = new com.google.gson.stream.JsonReader(in);
+    }
+
+    public void setLenient(boolean lenient) {
+        mReader.setLenient(lenient);
+    }
+
+    public void beginArray() throws IOException {
+        try {
+            mReader.beginArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void endArray() throws IOException {
+        try {
+            mReader.endArray();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void beginObject() throws IOException {
+        try {
+            mReader.beginObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void endObject() throws IOException {
+        try {
+            mReader.endObject();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public boolean hasNext() throws IOException {
+        try {
+            return mReader.hasNext();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public JsonToken peek() throws IOException {
+        try {
+            return JsonToken.valueOf(mReader.peek().name());
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public String nextName() throws IOException {
+        try {
+            return mReader.nextName();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public String nextString() throws IOException {
+        try {
+            return mReader.nextString();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        try {
+            return mReader.nextBoolean();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void nextNull() throws IOException {
+        try {
+            mReader.nextNull();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public double nextDouble() throws IOException {
+        try {
+            return mReader.nextDouble();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public long nextLong() throws IOException {
+        try {
+            return mReader.nextLong();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public int nextInt() throws IOException {
+        try {
+            return mReader.nextInt();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    public void skipValue() throws IOException {
+        try {
+            mReader.skipValue();
+        } catch (com.google.gson.stream.MalformedJsonException e) {
+            throw malformed(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    private static MalformedJsonException malformed(
+            com.google.gson.stream.MalformedJsonException e) {
+        MalformedJsonException malformed = new MalformedJsonException(e.getMessage());
+        malformed.initCause(e);
+        return malformed;
+    }
+}